@@ -0,0 +1,69 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.tartakynov.robotnoise.analytics.AnalyticsDispatcher;
+import com.tartakynov.robotnoise.analytics.AnalyticsEvent;
+import com.tartakynov.robotnoise.analytics.IAnalyticsBackend;
+
+/**
+ * @author Artem Tartakynov
+ * Runs AnalyticsDispatcher against a fake backend which is offline for a while, reports how long track() takes
+ * on the caller's thread, how the sends back off, and whether the events queued while offline survive a restart
+ * of the dispatcher. Usage: AnalyticsSimulation
+ */
+public final class AnalyticsSimulation implements IAnalyticsBackend {
+    private static final int EVENTS 		= 100000;
+    private static final int CAPACITY 		= 256;
+    private static final int BATCH_SIZE 	= 20;
+    private static final long FLUSH_DELAY 	= 50; // ms
+    private static final long BACKOFF 		= 20; // ms
+
+    private final long mStart = System.nanoTime();
+    private volatile boolean mOnline = false;
+    private volatile int mReceived = 0;
+    private volatile int mSends = 0;
+    private final StringBuilder mAttempts = new StringBuilder();
+
+    public static void main(String[] args) throws Exception {
+	final File file = File.createTempFile("analytics", ".queue");
+	file.delete();
+	try {
+	    final AnalyticsSimulation offline = new AnalyticsSimulation();
+	    AnalyticsDispatcher dispatcher = new AnalyticsDispatcher(offline, file, CAPACITY, BATCH_SIZE, FLUSH_DELAY, BACKOFF);
+	    final long start = System.nanoTime();
+	    for (int i = 0; i < EVENTS; i++) {
+		dispatcher.track(AnalyticsEvent.event("robot", "step", i % 2 == 0 ? "forward" : "backward", i));
+	    }
+	    final long elapsed = System.nanoTime() - start;
+	    System.out.println(String.format("track: %.0f ns/event on the caller, %d queued, %d dropped",
+		    (double) elapsed / EVENTS, dispatcher.size(), dispatcher.getDroppedCount()));
+	    Thread.sleep(1500);
+	    System.out.println(String.format("offline: %d failed sends at %s ms", dispatcher.getFailureCount(), offline.mAttempts));
+	    dispatcher.shutdown();
+	    Thread.sleep(200);
+	    System.out.println(String.format("saved: %d bytes for %d events", file.length(), dispatcher.size()));
+
+	    final AnalyticsSimulation online = new AnalyticsSimulation();
+	    online.mOnline = true;
+	    dispatcher = new AnalyticsDispatcher(online, file, CAPACITY, BATCH_SIZE, FLUSH_DELAY, BACKOFF);
+	    Thread.sleep(200);
+	    System.out.println(String.format("restarted online: received %d events in %d sends, %d left",
+		    online.mReceived, online.mSends, dispatcher.size()));
+	    dispatcher.shutdown();
+	} finally {
+	    file.delete();
+	}
+    }
+
+    @Override
+    public void send(AnalyticsEvent[] batch, int count) throws IOException {
+	if (!mOnline) {
+	    mAttempts.append(mAttempts.length() == 0 ? "" : ", ").append((System.nanoTime() - mStart) / 1000000);
+	    throw new IOException("Offline");
+	}
+	mReceived += count;
+	mSends++;
+    }
+}
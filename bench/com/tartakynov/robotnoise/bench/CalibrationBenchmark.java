@@ -0,0 +1,85 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import com.tartakynov.robotnoise.leg.LegCalibrator;
+import com.tartakynov.robotnoise.leg.LegParameters;
+import com.tartakynov.robotnoise.leg.WalkRecording;
+
+/**
+ * @author Artem Tartakynov
+ * Calibrates the detector by 30 seconds of walks in different pockets and reports the search time on one
+ * and on all cores, the estimated stride and the score of default and calibrated parameters.
+ * Given traces are calibrated by their first 30 seconds and scored on the whole trace.
+ * Usage: CalibrationBenchmark [walk.trace ...]
+ */
+public final class CalibrationBenchmark {
+    private static final int CALIBRATION_SAMPLES = 500; // 30s, the same as RobotService records
+    private static final int CHECK_SAMPLES	 = 1000; // a minute of walking, the synthetic walk stops after it
+
+    private static final class Walk {
+	final WalkingTrace calibration;
+	final WalkingTrace check;
+	final float stepsPerMinute; // 0 if unknown
+
+	Walk(WalkingTrace calibration, WalkingTrace check, float stepsPerMinute) {
+	    this.calibration = calibration;
+	    this.check = check;
+	    this.stepsPerMinute = stepsPerMinute;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	final ArrayList<Walk> walks = new ArrayList<Walk>();
+	walks.add(synthetic("tight-110spm", 110, 0.45));
+	walks.add(synthetic("loose-90spm", 90, 0.2));
+	walks.add(synthetic("loose-70spm", 70, 0.25));
+	walks.add(synthetic("hard-140spm", 140, 0.8));
+	for (String path : args) {
+	    final WalkingTrace trace = WalkingTrace.load(new File(path));
+	    final int length = Math.min(trace.length, CALIBRATION_SAMPLES);
+	    walks.add(new Walk(new WalkingTrace(trace.name, trace.timestamps, trace.x, trace.y, trace.z, length), trace, 0));
+	}
+
+	final int cores = Runtime.getRuntime().availableProcessors();
+	final LegCalibrator single = new LegCalibrator(1);
+	final LegCalibrator parallel = new LegCalibrator(cores);
+	for (int i = 0; i < 3; i++) { // warm up
+	    single.calibrate(recording(walks.get(0).calibration));
+	    parallel.calibrate(recording(walks.get(0).calibration));
+	}
+	System.out.println("cores: " + cores);
+	for (Walk walk : walks) {
+	    final WalkRecording recording = recording(walk.calibration);
+	    final LegCalibrator.Result one = single.calibrate(recording);
+	    final LegCalibrator.Result result = parallel.calibrate(recording);
+	    if (result == null) {
+		System.out.println(String.format("%-16s not a walk", walk.calibration.name));
+		continue;
+	    }
+	    final WalkRecording check = recording(walk.check);
+	    final long stride = LegCalibrator.estimateStride(check);
+	    System.out.println(String.format("%-16s stride %4d ms%s  %4d replays  %6.1f ms on 1 core  %6.1f ms on %d",
+		    walk.calibration.name, result.strideNanos / 1000000,
+		    walk.stepsPerMinute > 0 ? String.format(" (%4d)", (int) (120000 / walk.stepsPerMinute)) : "",
+		    result.evaluated, one.elapsedNanos / 1e6, result.elapsedNanos / 1e6, cores));
+	    System.out.println(String.format("%-16s default score %5.2f  calibrated %5.2f  check %5.2f -> %5.2f  %s", "",
+		    LegCalibrator.score(LegParameters.DEFAULT, recording, result.strideNanos), result.score,
+		    LegCalibrator.score(LegParameters.DEFAULT, check, stride),
+		    LegCalibrator.score(result.parameters, check, stride), result.parameters));
+	}
+    }
+
+    /**
+     * Walk with its own noise for calibration and a longer one for checking the result
+     */
+    private static Walk synthetic(String name, float stepsPerMinute, double swing) {
+	return new Walk(WalkingTrace.synthetic(CALIBRATION_SAMPLES, stepsPerMinute, 1, swing, name),
+		WalkingTrace.synthetic(CHECK_SAMPLES, stepsPerMinute, 2, swing, name), stepsPerMinute);
+    }
+
+    private static WalkRecording recording(WalkingTrace trace) {
+	return new WalkRecording(trace.timestamps, trace.x, trace.y, trace.z, trace.length);
+    }
+}
@@ -0,0 +1,79 @@
+package com.tartakynov.robotnoise.bench;
+
+import com.tartakynov.robotnoise.util.SensorClock;
+
+/**
+ * @author Artem Tartakynov
+ * Runs SensorClock on fake clocks through walks separated by deep sleep, which advances elapsedRealtimeNanos()
+ * but not System.nanoTime(). Checks that the delivery latency of a sample stays what the fake sensor reports
+ * and shows the error of an offset taken once. Exits with an error on the first mismatch. Usage: ClockSimulation
+ */
+public final class ClockSimulation implements SensorClock.IHost {
+    private static final long DELIVERY 	= 5000000L; // ns from the sample to onSensorChanged
+    private static final long SLEEP 	= 600000000000L; // ns, ten minutes between walks
+    private static final long TOLERANCE = 1000000L;
+
+    private final boolean mHasRealtime;
+    private long mRealtime = 3600000000000L; // an hour since boot
+    private long mNanoTime = 3000000000000L; // ten minutes of it asleep
+
+    ClockSimulation(boolean hasRealtime) {
+	mHasRealtime = hasRealtime;
+    }
+
+    public static void main(String[] args) {
+	run(true, "realtime sensor clock");
+	run(false, "uptime sensor clock");
+	System.out.println("all clock scenarios passed");
+    }
+
+    static void run(boolean hasRealtime, String name) {
+	final ClockSimulation s = new ClockSimulation(hasRealtime);
+	final SensorClock clock = new SensorClock(s);
+	long onceOffset = 0;
+	for (int walk = 0; walk < 3; walk++) {
+	    for (int sample = 0; sample < 100; sample++) {
+		s.advance(60000000L); // the fast sensor rate
+		final long timestamp = s.sensorNow() - DELIVERY;
+		clock.check(timestamp);
+		if (walk == 0 && sample == 0 && clock.isRealtime()) {
+		    onceOffset = s.mRealtime - s.mNanoTime;
+		}
+		final long delivery = s.mNanoTime - clock.toSystemNanos(timestamp);
+		expect(name + ": walk " + walk + " delivery " + delivery + " ns", Math.abs(delivery - DELIVERY) < TOLERANCE);
+	    }
+	    final long timestamp = s.sensorNow() - DELIVERY;
+	    System.out.println(String.format("%s, walk %d: delivery %.1f ms, with the first offset %.1f ms",
+		    name, walk, (s.mNanoTime - clock.toSystemNanos(timestamp)) / 1e6, (s.mNanoTime - (timestamp - onceOffset)) / 1e6));
+	    s.mRealtime += SLEEP; // the session lets the CPU sleep until the next walk
+	}
+    }
+
+    private void advance(long nanos) {
+	mRealtime += nanos;
+	mNanoTime += nanos;
+    }
+
+    private long sensorNow() {
+	return mHasRealtime ? mRealtime : mNanoTime;
+    }
+
+    private static void expect(String what, boolean condition) {
+	if (!condition) {
+	    System.out.println("FAILED " + what);
+	    System.exit(1);
+	}
+    }
+
+    /********************* SensorClock.IHost ***************************/
+
+    @Override
+    public long elapsedRealtimeNanos() {
+	return mHasRealtime ? mRealtime : Long.MIN_VALUE;
+    }
+
+    @Override
+    public long nanoTime() {
+	return mNanoTime;
+    }
+}
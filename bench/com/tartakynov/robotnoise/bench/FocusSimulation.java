@@ -0,0 +1,123 @@
+package com.tartakynov.robotnoise.bench;
+
+import com.tartakynov.robotnoise.audio.AudioFocusController;
+
+/**
+ * @author Artem Tartakynov
+ * Drives AudioFocusController with a fake AudioManager through scripted focus changes and checks
+ * the playback state after every step. Exits with an error on the first mismatch. Usage: FocusSimulation
+ */
+public final class FocusSimulation implements AudioFocusController.IFocusRequester, AudioFocusController.IListener {
+    private final AudioFocusController mController = new AudioFocusController(this, this);
+    private boolean mGrant = true;
+    private boolean mHeld = false;
+    private int mRequests = 0;
+    private int mChanges = 0;
+    private boolean mCanPlay = false;
+    private float mGain = 1.0f;
+
+    public static void main(String[] args) {
+	notification();
+	navigation();
+	permanentLoss();
+	denied();
+	System.out.println("all focus scenarios passed");
+    }
+
+    /**
+     * A notification sound pauses the playback, the focus comes back without re-requesting it
+     */
+    static void notification() {
+	final FocusSimulation s = new FocusSimulation();
+	s.mController.start();
+	s.check("started", true, 1.0f, 1, 1);
+	s.mController.onLossTransient();
+	s.check("transient loss", false, 1.0f, 1, 2);
+	s.mController.onGain();
+	s.check("gain", true, 1.0f, 1, 3);
+	s.mController.stop();
+	s.check("stopped", false, 1.0f, 1, 4);
+	s.expect("focus abandoned", !s.mHeld);
+    }
+
+    /**
+     * Navigation prompts duck the volume, a gain while ducked restores it
+     */
+    static void navigation() {
+	final FocusSimulation s = new FocusSimulation();
+	s.mController.start();
+	s.mController.onLossTransientCanDuck();
+	s.check("duck", true, AudioFocusController.DUCK_GAIN, 1, 2);
+	s.mController.onLossTransientCanDuck();
+	s.check("duck again", true, AudioFocusController.DUCK_GAIN, 1, 2);
+	s.mController.onLossTransient();
+	s.check("pause while ducked", false, 1.0f, 1, 3);
+	s.mController.onGain();
+	s.check("gain", true, 1.0f, 1, 4);
+    }
+
+    /**
+     * A music player takes the focus for good, it's requested again on the next start
+     */
+    static void permanentLoss() {
+	final FocusSimulation s = new FocusSimulation();
+	s.mController.start();
+	s.mController.onLoss();
+	s.check("loss", false, 1.0f, 1, 2);
+	s.expect("focus abandoned", !s.mHeld);
+	s.mController.onGain();
+	s.check("stale gain", false, 1.0f, 1, 2);
+	s.mController.start();
+	s.check("restarted", true, 1.0f, 2, 3);
+    }
+
+    /**
+     * A call in progress denies the focus
+     */
+    static void denied() {
+	final FocusSimulation s = new FocusSimulation();
+	s.mGrant = false;
+	s.mController.start();
+	s.check("denied", false, 1.0f, 1, 0);
+	s.mGrant = true;
+	s.mController.start();
+	s.check("granted", true, 1.0f, 2, 1);
+    }
+
+    /********************* Checks **************************************/
+
+    private void check(String step, boolean canPlay, float gain, int requests, int changes) {
+	expect(step + ": can play", canPlay == mCanPlay && canPlay == mController.canPlay());
+	expect(step + ": gain", gain == mGain && gain == mController.getGain());
+	expect(step + ": focus requests " + mRequests, requests == mRequests);
+	expect(step + ": playback changes " + mChanges, changes == mChanges);
+    }
+
+    private void expect(String what, boolean condition) {
+	if (!condition) {
+	    System.out.println("FAILED " + what);
+	    System.exit(1);
+	}
+    }
+
+    /********************* Fake AudioManager ***************************/
+
+    @Override
+    public boolean requestFocus() {
+	mRequests++;
+	mHeld = mGrant;
+	return mGrant;
+    }
+
+    @Override
+    public void abandonFocus() {
+	mHeld = false;
+    }
+
+    @Override
+    public void onPlaybackChanged(boolean canPlay, float gain) {
+	mChanges++;
+	mCanPlay = canPlay;
+	mGain = gain;
+    }
+}
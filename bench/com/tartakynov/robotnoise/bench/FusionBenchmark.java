@@ -0,0 +1,153 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import com.tartakynov.robotnoise.leg.FusionFilter;
+import com.tartakynov.robotnoise.leg.ILegMovementListener;
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+import com.tartakynov.robotnoise.leg.SampleAligner;
+
+/**
+ * @author Artem Tartakynov
+ * Replays accelerometer, gyroscope and linear acceleration in timestamp order through SampleAligner,
+ * FusionFilter and LegMovementEngine. Reports the cost per accelerometer sample and matches the leg movements
+ * with the accelerometer-only detection, a movement matches one of the same kind within MATCH_TOLERANCE.
+ * A recorded trace fails if less than MIN_AGREEMENT of the movements of either detection match.
+ * The synthetic walk is a sanity check only: its linear acceleration is the injected signal itself, so fusion
+ * sees exact gravity there and the counts say nothing about a real walk. Usage: FusionBenchmark [fusion.trace]
+ */
+public final class FusionBenchmark {
+    private static final int ALIGNER_CAPACITY 	= 8;
+    private static final long MAX_DELAY_NANOS 	= 200000000L;
+    private static final long MATCH_TOLERANCE 	= 150000000L; // ns, well under a stride
+    private static final float MIN_AGREEMENT 	= 0.9f;
+
+    /**
+     * Fused detection pipeline, the same one LegMovementDetector runs in the fusion mode
+     */
+    static final class Pipeline implements SampleAligner.IListener {
+	final LegMovementEngine engine = new LegMovementEngine();
+	final FusionFilter filter = new FusionFilter(FusionFilter.DEFAULT_Q, FusionFilter.DEFAULT_R);
+	final SampleAligner aligner = new SampleAligner(this, 2, ALIGNER_CAPACITY, MAX_DELAY_NANOS);
+
+	@Override
+	public void onAlignedSample(long timestampNanos, float[] values) {
+	    filter.correct(timestampNanos, values);
+	    engine.processFiltered(timestampNanos, filter.getX(), filter.getY(), filter.getZ());
+	}
+
+	/**
+	 * Feeds the sensors in timestamp order like they come from SensorManager
+	 */
+	void replay(FusionTrace trace) {
+	    final WalkingTrace a = trace.accelerometer;
+	    final WalkingTrace g = trace.gyroscope;
+	    final WalkingTrace l = trace.linear;
+	    int i = 0, j = 0, k = 0;
+	    while (i < a.length || j < g.length || k < l.length) {
+		final long ta = i < a.length ? a.timestamps[i] : Long.MAX_VALUE;
+		final long tg = j < g.length ? g.timestamps[j] : Long.MAX_VALUE;
+		final long tl = k < l.length ? l.timestamps[k] : Long.MAX_VALUE;
+		if (ta <= tg && ta <= tl) {
+		    aligner.putPrimary(ta, a.x[i], a.y[i], a.z[i]);
+		    i++;
+		} else if (tg <= tl) {
+		    aligner.putSecondary(0, tg, g.x[j], g.y[j], g.z[j]);
+		    j++;
+		} else {
+		    aligner.putSecondary(1, tl, l.x[k], l.y[k], l.z[k]);
+		    k++;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Records forward and backward movements in the order they are detected
+     */
+    static final class Recorder implements ILegMovementListener {
+	final ArrayList<Long> times = new ArrayList<Long>();
+	final ArrayList<Integer> activities = new ArrayList<Integer>();
+
+	@Override
+	public void onLegActivity(int activity, long timestampNanos) {
+	    if (activity == LegMovementEngine.LEG_MOVEMENT_FORWARD || activity == LegMovementEngine.LEG_MOVEMENT_BACKWARD) {
+		times.add(timestampNanos);
+		activities.add(activity);
+	    }
+	}
+
+	int size() {
+	    return times.size();
+	}
+
+	/**
+	 * Number of movements which have a movement of the same kind within the tolerance in other,
+	 * every movement of other is matched at most once
+	 */
+	int match(Recorder other) {
+	    final boolean[] used = new boolean[other.size()];
+	    int matched = 0;
+	    int from = 0;
+	    for (int i = 0; i < size(); i++) {
+		final long t = times.get(i);
+		while (from < other.size() && other.times.get(from) < t - MATCH_TOLERANCE) {
+		    from++;
+		}
+		for (int j = from; j < other.size() && other.times.get(j) <= t + MATCH_TOLERANCE; j++) {
+		    if (!used[j] && other.activities.get(j).equals(activities.get(i))) {
+			used[j] = true;
+			matched++;
+			break;
+		    }
+		}
+	    }
+	    return matched;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	final boolean recorded = args.length > 0;
+	final FusionTrace trace = recorded ? FusionTrace.loadTrace(new File(args[0])) : FusionTrace.synthetic(100000, 110, 1);
+	final WalkingTrace accelerometer = trace.accelerometer;
+	System.out.println(String.format("# %s: %d samples, %.0f s", accelerometer.name, accelerometer.length, accelerometer.seconds()));
+
+	final Recorder reference = new Recorder();
+	final LegMovementEngine engine = new LegMovementEngine();
+	engine.addListener(reference);
+	engine.process(accelerometer.timestamps, accelerometer.x, accelerometer.y, accelerometer.z, 0, accelerometer.length);
+	final Recorder fused = new Recorder();
+	final Pipeline pipeline = new Pipeline();
+	pipeline.engine.addListener(fused);
+	pipeline.replay(trace);
+	final int matched = reference.match(fused);
+	final float recall = reference.size() > 0 ? (float) matched / reference.size() : 1;
+	final float precision = fused.size() > 0 ? (float) matched / fused.size() : 1;
+	System.out.println(String.format("movements: accelerometer %d, fusion %d, matched %d (%.0f%% of accelerometer, %.0f%% of fusion)",
+		reference.size(), fused.size(), matched, recall * 100, precision * 100));
+	if (!recorded) {
+	    System.out.println("synthetic walk, fusion sees exact gravity by construction: sanity check only, nothing is compared");
+	} else if (recall < MIN_AGREEMENT || precision < MIN_AGREEMENT) {
+	    System.out.println(String.format("FAILED: less than %.0f%% of the movements agree", MIN_AGREEMENT * 100));
+	    System.exit(1);
+	} else {
+	    System.out.println("ok");
+	}
+
+	LegBenchmark.measure(new LegBenchmark.Case("fusion/aligned") {
+	    private Pipeline mPipeline;
+
+	    @Override
+	    public void setUp(WalkingTrace t) {
+		mPipeline = new Pipeline();
+	    }
+
+	    @Override
+	    public float run(WalkingTrace t) {
+		mPipeline.replay(trace);
+		return mPipeline.filter.getZ();
+	    }
+	}, accelerometer);
+    }
+}
@@ -0,0 +1,95 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.tartakynov.robotnoise.trace.TraceReader;
+import com.tartakynov.robotnoise.trace.TraceWriter;
+
+/**
+ * @author Artem Tartakynov
+ * Accelerometer, gyroscope and linear acceleration samples of one walk, every sensor with its own timestamps
+ */
+public final class FusionTrace {
+    private static final float GRAVITY 		= 9.81f;
+    private static final double THIGH_LENGTH 	= 0.25; // m, from the hip to the pocket
+    private static final long GYRO_OFFSET 	= 17000000L; // gyroscope samples lag the accelerometer ones
+    private static final long LINEAR_OFFSET 	= 31000000L;
+
+    public final WalkingTrace accelerometer;
+    public final WalkingTrace gyroscope;
+    public final WalkingTrace linear;
+
+    public FusionTrace(WalkingTrace accelerometer, WalkingTrace gyroscope, WalkingTrace linear) {
+	this.accelerometer = accelerometer;
+	this.gyroscope = gyroscope;
+	this.linear = linear;
+    }
+
+    /**
+     * Generates the same walk as WalkingTrace.synthetic(), the thigh swings around the phone's X axis.
+     * Linear acceleration includes the swing and the bounce of every step
+     */
+    public static FusionTrace synthetic(int samples, float stepsPerMinute, long seed) {
+	final Random random = new Random(seed);
+	final WalkingTrace accelerometer = allocate("synthetic-" + (int) stepsPerMinute + "spm", samples);
+	final WalkingTrace gyroscope = allocate("gyroscope", samples);
+	final WalkingTrace linear = allocate("linear", samples);
+	final double w = 2 * Math.PI * stepsPerMinute / 120.0;
+	final long minute = 60000000000L;
+	for (int i = 0; i < samples; i++) {
+	    final long t = i * WalkingTrace.SAMPLE_PERIOD_NANOS;
+	    final double amplitude = ((t / minute) % 2 == 0) ? 0.45 : 0;
+	    final double s = t / 1e9;
+	    final double angle = amplitude * Math.sin(w * s);
+	    final double tangential = THIGH_LENGTH * -amplitude * w * w * Math.sin(w * s);
+	    final double bounce = (amplitude > 0) ? 1.5 * Math.sin(2 * w * s) : 0;
+	    final float lx = (float) (0.3 * random.nextGaussian());
+	    final float ly = (float) (bounce + 0.2 * random.nextGaussian());
+	    final float lz = (float) (tangential + 0.2 * random.nextGaussian());
+	    accelerometer.timestamps[i] = t;
+	    accelerometer.x[i] = lx + (float) (0.05 * random.nextGaussian());
+	    accelerometer.y[i] = (float) (GRAVITY * Math.cos(angle)) + ly;
+	    accelerometer.z[i] = (float) (GRAVITY * Math.sin(angle)) + lz;
+
+	    final double gs = (t + GYRO_OFFSET) / 1e9;
+	    gyroscope.timestamps[i] = t + GYRO_OFFSET;
+	    gyroscope.x[i] = (float) (-amplitude * w * Math.cos(w * gs) + 0.02 * random.nextGaussian());
+	    gyroscope.y[i] = (float) (0.02 * random.nextGaussian());
+	    gyroscope.z[i] = (float) (0.02 * random.nextGaussian());
+
+	    final double ls = (t + LINEAR_OFFSET) / 1e9;
+	    linear.timestamps[i] = t + LINEAR_OFFSET;
+	    linear.x[i] = (float) (0.05 * random.nextGaussian());
+	    linear.y[i] = (float) ((amplitude > 0 ? 1.5 * Math.sin(2 * w * ls) : 0) + 0.05 * random.nextGaussian());
+	    linear.z[i] = (float) (THIGH_LENGTH * -amplitude * w * w * Math.sin(w * ls) + 0.05 * random.nextGaussian());
+	}
+	return new FusionTrace(accelerometer, gyroscope, linear);
+    }
+
+    /**
+     * Loads the three sensors from a binary trace recorded in the fusion mode
+     */
+    public static FusionTrace loadTrace(File file) throws IOException {
+	final TraceReader reader = new TraceReader(file);
+	try {
+	    return new FusionTrace(read(reader, TraceWriter.SENSOR_ACCELEROMETER, file.getName()),
+		    read(reader, TraceWriter.SENSOR_GYROSCOPE, "gyroscope"),
+		    read(reader, TraceWriter.SENSOR_LINEAR_ACCELERATION, "linear"));
+	} finally {
+	    reader.close();
+	}
+    }
+
+    private static WalkingTrace read(TraceReader reader, int sensorType, String name) {
+	final WalkingTrace trace = allocate(name, reader.getRecordCount());
+	reader.rewind();
+	final int length = reader.read(sensorType, trace.timestamps, trace.x, trace.y, trace.z, 0, trace.length);
+	return new WalkingTrace(name, trace.timestamps, trace.x, trace.y, trace.z, length);
+    }
+
+    private static WalkingTrace allocate(String name, int samples) {
+	return new WalkingTrace(name, new long[samples], new float[samples], new float[samples], new float[samples], samples);
+    }
+}
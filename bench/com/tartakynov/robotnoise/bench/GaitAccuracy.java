@@ -0,0 +1,84 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.tartakynov.robotnoise.leg.IGaitListener;
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+
+/**
+ * @author Artem Tartakynov
+ * Checks the cadence reported by GaitEstimator against labeled traces. A trace is labeled by its name,
+ * e.g. walk-110spm.trace was recorded while walking at 110 steps per minute. Exits with an error if the mean
+ * error of any trace exceeds the limit. Usage: GaitAccuracy [walk-110spm.trace ...]
+ */
+public final class GaitAccuracy {
+    private static final float MAX_MEAN_ERROR = 0.05f; // of the labeled cadence
+    private static final Pattern LABEL = Pattern.compile("(\\d+)spm");
+
+    /**
+     * Collects the estimates of one replay
+     */
+    private static final class Collector implements IGaitListener {
+	int updates = 0;
+	double errorSum = 0;
+	double maxError = 0;
+	double regularitySum = 0;
+	long firstUpdateAt = -1;
+	private final float mLabel;
+
+	Collector(float label) {
+	    mLabel = label;
+	}
+
+	@Override
+	public void onGaitChanged(float cadence, long stridePeriodNanos, float regularity, long timestampNanos) {
+	    if (cadence == 0) {
+		return;
+	    }
+	    if (firstUpdateAt < 0) {
+		firstUpdateAt = timestampNanos;
+	    }
+	    final double error = Math.abs(cadence - mLabel) / mLabel;
+	    updates++;
+	    errorSum += error;
+	    maxError = Math.max(maxError, error);
+	    regularitySum += regularity;
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	final ArrayList<WalkingTrace> traces = new ArrayList<WalkingTrace>();
+	for (int cadence : new int[] { 70, 90, 110, 130, 160 }) {
+	    traces.add(WalkingTrace.synthetic(20000, cadence, cadence));
+	}
+	for (String path : args) {
+	    traces.add(WalkingTrace.load(new File(path)));
+	}
+	boolean failed = false;
+	for (WalkingTrace trace : traces) {
+	    final Matcher matcher = LABEL.matcher(trace.name);
+	    if (!matcher.find()) {
+		System.out.println(String.format("%-24s skipped, no cadence label in the name", trace.name));
+		continue;
+	    }
+	    final float label = Integer.parseInt(matcher.group(1));
+	    final Collector collector = new Collector(label);
+	    final LegMovementEngine engine = new LegMovementEngine();
+	    engine.addGaitListener(collector);
+	    engine.process(trace.timestamps, trace.x, trace.y, trace.z, 0, trace.length);
+	    final double meanError = collector.updates == 0 ? 1 : collector.errorSum / collector.updates;
+	    final boolean ok = meanError <= MAX_MEAN_ERROR;
+	    failed |= !ok;
+	    System.out.println(String.format("%-24s %5d updates  mean error %5.1f%%  max error %5.1f%%  regularity %.2f  first after %.1f s  %s",
+		    trace.name, collector.updates, meanError * 100, collector.maxError * 100,
+		    collector.updates == 0 ? 0 : collector.regularitySum / collector.updates,
+		    collector.firstUpdateAt < 0 ? 0 : (collector.firstUpdateAt - trace.timestamps[0]) / 1e9, ok ? "ok" : "FAILED"));
+	}
+	if (failed) {
+	    System.exit(1);
+	}
+    }
+}
@@ -0,0 +1,187 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+import com.tartakynov.robotnoise.leg.MultiAxisKalmanFilter;
+import com.tartakynov.robotnoise.leg.ScalarKalmanFilter;
+import com.tartakynov.robotnoise.trace.TraceReader;
+import com.tartakynov.robotnoise.trace.TraceReplay;
+
+/**
+ * @author Artem Tartakynov
+ * Measures the cost of leg detection math on a desktop JVM. Every case replays the whole trace, reports time
+ * and heap allocation per sample and how many times faster than real time it runs. Usage: LegBenchmark [trace.csv ...]
+ */
+public final class LegBenchmark {
+    private static final int WARMUP_ITERATIONS 	= 20;
+    private static final int ITERATIONS 	= 50;
+    private static final int BLOCK_SIZE 	= 64;
+
+    /**
+     * Single benchmark case, replays the trace once
+     */
+    public static abstract class Case {
+	final String name;
+
+	public Case(String name) {
+	    this.name = name;
+	}
+
+	/**
+	 * Called once before the measurements
+	 */
+	public void setUp(WalkingTrace trace) throws IOException {
+	}
+
+	/**
+	 * Replays trace, the result is consumed to prevent dead code elimination
+	 */
+	public abstract float run(WalkingTrace trace);
+    }
+
+    private static volatile float sSink;
+
+    public static void main(String[] args) throws Exception {
+	final ArrayList<WalkingTrace> traces = new ArrayList<WalkingTrace>();
+	traces.add(WalkingTrace.synthetic(100000, 110, 1));
+	for (String path : args) {
+	    traces.add(WalkingTrace.load(new File(path)));
+	}
+	for (WalkingTrace trace : traces) {
+	    System.out.println(String.format("# %s: %d samples, %.0f s", trace.name, trace.length, trace.seconds()));
+	    for (Case c : cases()) {
+		measure(c, trace);
+	    }
+	}
+    }
+
+    /**
+     * All benchmark cases
+     */
+    static ArrayList<Case> cases() {
+	final ArrayList<Case> cases = new ArrayList<Case>();
+	cases.add(new Case("cascade/scalar-z") {
+	    private final ScalarKalmanFilter[] mCascade = new ScalarKalmanFilter[3];
+
+	    @Override
+	    public void setUp(WalkingTrace trace) {
+		for (int i = 0; i < mCascade.length; i++) {
+		    mCascade[i] = new ScalarKalmanFilter(1, 1, 0.01f, 0.0025f);
+		}
+	    }
+
+	    @Override
+	    public float run(WalkingTrace trace) {
+		float sum = 0;
+		for (int i = 0; i < trace.length; i++) {
+		    sum += mCascade[2].correct(mCascade[1].correct(mCascade[0].correct(trace.z[i])));
+		}
+		return sum;
+	    }
+	});
+	cases.add(new Case("cascade/multiaxis-xyz") {
+	    private MultiAxisKalmanFilter mFilter;
+
+	    @Override
+	    public void setUp(WalkingTrace trace) {
+		mFilter = new MultiAxisKalmanFilter(3, 1, 1, 0.01f, 0.0025f);
+	    }
+
+	    @Override
+	    public float run(WalkingTrace trace) {
+		float sum = 0;
+		for (int i = 0; i < trace.length; i++) {
+		    mFilter.correct(trace.x[i], trace.y[i], trace.z[i]);
+		    sum += mFilter.getZ();
+		}
+		return sum;
+	    }
+	});
+	cases.add(new Case("engine/sample") {
+	    private LegMovementEngine mEngine;
+
+	    @Override
+	    public void setUp(WalkingTrace trace) {
+		mEngine = new LegMovementEngine();
+	    }
+
+	    @Override
+	    public float run(WalkingTrace trace) {
+		int sum = 0;
+		for (int i = 0; i < trace.length; i++) {
+		    sum += mEngine.process(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+		}
+		return sum;
+	    }
+	});
+	cases.add(new Case("engine/block") {
+	    private LegMovementEngine mEngine;
+
+	    @Override
+	    public void setUp(WalkingTrace trace) {
+		mEngine = new LegMovementEngine();
+	    }
+
+	    @Override
+	    public float run(WalkingTrace trace) {
+		return mEngine.process(trace.timestamps, trace.x, trace.y, trace.z, 0, trace.length);
+	    }
+	});
+	cases.add(new Case("trace/replay") {
+	    private LegMovementEngine mEngine;
+	    private TraceReader mReader;
+	    private final TraceReplay mReplay = new TraceReplay(0);
+
+	    @Override
+	    public void setUp(WalkingTrace trace) throws IOException {
+		final File file = File.createTempFile("bench", ".trace");
+		file.deleteOnExit();
+		file.delete();
+		trace.save(file);
+		mEngine = new LegMovementEngine();
+		mReader = new TraceReader(file);
+	    }
+
+	    @Override
+	    public float run(WalkingTrace trace) {
+		return mReplay.replay(mReader, mEngine);
+	    }
+	});
+	return cases;
+    }
+
+    /**
+     * Runs the case and prints ns/sample and bytes/sample
+     */
+    static void measure(Case c, WalkingTrace trace) throws IOException {
+	c.setUp(trace);
+	for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+	    sSink += c.run(trace);
+	}
+	final long bytesBefore = allocatedBytes();
+	final long start = System.nanoTime();
+	for (int i = 0; i < ITERATIONS; i++) {
+	    sSink += c.run(trace);
+	}
+	final long elapsed = System.nanoTime() - start;
+	final long bytes = allocatedBytes() - bytesBefore;
+	final double samples = (double) trace.length * ITERATIONS;
+	final double realtime = trace.seconds() * ITERATIONS / (elapsed / 1e9);
+	System.out.println(String.format("%-24s %8.2f ns/sample %8.3f B/sample %12.0fx realtime", c.name, elapsed / samples, bytes / samples, realtime));
+    }
+
+    /**
+     * Heap bytes allocated by current thread, -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+	final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean instanceof com.sun.management.ThreadMXBean) {
+	    return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	return -1;
+    }
+}
@@ -0,0 +1,63 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.lang.management.ManagementFactory;
+
+import com.tartakynov.robotnoise.audio.AudioMixer;
+
+/**
+ * @author Artem Tartakynov
+ * Measures AudioMixer rendering with all voices busy, reports time and heap allocation per block
+ * and how many times faster than real time it runs. The second case changes the volume before every block,
+ * like dragging the volume dial does. Usage: MixerBenchmark
+ */
+public final class MixerBenchmark {
+    private static final int SAMPLE_RATE 	= 44100;
+    private static final int VOICES 		= 4;
+    private static final int BLOCK_FRAMES 	= 256;
+    private static final int BLOCKS 		= 200000;
+
+    private static volatile long sSink;
+
+    public static void main(String[] args) {
+	final AudioMixer mixer = new AudioMixer(SAMPLE_RATE, VOICES, BLOCK_FRAMES);
+	final short[][] clips = new short[][] { tone(SAMPLE_RATE / 2, 220), tone(SAMPLE_RATE / 2, 330) };
+	final int[] rates = new int[] { SAMPLE_RATE, 22050 };
+	final short[] block = new short[BLOCK_FRAMES];
+	for (int run = 0; run < 4; run++) {
+	    final boolean dragging = run % 2 == 1;
+	    final long bytesBefore = allocatedBytes();
+	    final long start = System.nanoTime();
+	    for (int i = 0; i < BLOCKS; i++) {
+		if (i % 8 == 0) {
+		    mixer.play(clips[i % 2], rates[i % 2]); // a new step every 46 ms keeps all voices busy
+		}
+		if (dragging) {
+		    mixer.setVolume((i % 100) / 100.0f);
+		}
+		mixer.render(block, 0, BLOCK_FRAMES);
+		sSink += block[i % BLOCK_FRAMES];
+	    }
+	    final long elapsed = System.nanoTime() - start;
+	    final long bytes = allocatedBytes() - bytesBefore;
+	    final double audioSeconds = (double) BLOCKS * BLOCK_FRAMES / SAMPLE_RATE;
+	    System.out.println(String.format("mixer/%d-voices%-9s %10.0f ns/block %8.3f B/block %10.0fx realtime",
+		    VOICES, dragging ? "/ramping" : "", (double) elapsed / BLOCKS, (double) bytes / BLOCKS, audioSeconds / (elapsed / 1e9)));
+	}
+    }
+
+    private static short[] tone(int length, float hz) {
+	final short[] samples = new short[length];
+	for (int i = 0; i < length; i++) {
+	    samples[i] = (short) (8000 * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE));
+	}
+	return samples;
+    }
+
+    private static long allocatedBytes() {
+	final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean instanceof com.sun.management.ThreadMXBean) {
+	    return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	return -1;
+    }
+}
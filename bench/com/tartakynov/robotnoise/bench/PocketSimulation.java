@@ -0,0 +1,144 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import com.tartakynov.robotnoise.pocket.PocketStateMachine;
+import com.tartakynov.robotnoise.trace.TraceReader;
+import com.tartakynov.robotnoise.trace.TraceWriter;
+
+/**
+ * @author Artem Tartakynov
+ * Feeds proximity and light readings to PocketStateMachine on a virtual clock. Reports how many times the state
+ * changed, how many detector restarts were avoided compared to following every reading and the longest delay
+ * of a change. Without arguments it walks with the phone in a pocket whose fabric flickers over the sensor.
+ * Usage: PocketSimulation [trace.trace]
+ */
+public final class PocketSimulation implements PocketStateMachine.IHost {
+    private final PocketStateMachine mMachine;
+    private long mNow;
+    private long mCheckAt = Long.MAX_VALUE;
+    private long mReadingSince; // when the last raw reading changed
+    private float mLastDistance = -1;
+    private long mWorstLatency;
+    private boolean mLightOn;
+    private int mLightStarts;
+
+    PocketSimulation(boolean useLight) {
+	mMachine = new PocketStateMachine(this, 2.0f, 3.0f, 1000, 300, 2000, useLight);
+    }
+
+    public static void main(String[] args) throws Exception {
+	for (boolean useLight : new boolean[] { false, true }) {
+	    final PocketSimulation simulation = new PocketSimulation(useLight);
+	    if (args.length > 0) {
+		simulation.replay(new File(args[0]));
+	    } else {
+		simulation.flicker(3600, 1);
+	    }
+	    simulation.report(useLight ? "proximity+light" : "proximity");
+	}
+    }
+
+    /**
+     * An hour of alternating 5 minute walks with the phone in the pocket and 1 minute out of it.
+     * While in the pocket, the fabric uncovers the sensor for 50-600 ms a few times per minute,
+     * half of the times only partly, so the reading stays within the hysteresis band
+     */
+    void flicker(int seconds, long seed) {
+	final Random random = new Random(seed);
+	for (long t = 0; t < seconds * 1000L; t += 50) {
+	    final boolean inPocket = (t / 60000) % 6 != 5;
+	    advance(t);
+	    if (inPocket && random.nextInt(400) == 0) {
+		final long gap = 50 + random.nextInt(550);
+		distance(t, random.nextBoolean() ? 5.0f : 2.5f);
+		light(t, 5.0f); // the fabric lets a little light in
+		advance(t + gap);
+		distance(t + gap, 0.0f);
+		light(t + gap, 1.0f);
+		t += gap;
+	    } else {
+		distance(t, inPocket ? 0.0f : 5.0f);
+		light(t, inPocket ? 1.0f : 200.0f);
+	    }
+	}
+    }
+
+    /**
+     * Replays proximity and light records of a trace
+     */
+    void replay(File file) throws Exception {
+	final TraceReader reader = new TraceReader(file);
+	try {
+	    while (reader.next()) {
+		final long t = reader.getTimestamp() / 1000000;
+		advance(t);
+		if (reader.getSensorType() == TraceWriter.SENSOR_PROXIMITY) {
+		    distance(t, reader.getX());
+		} else if (reader.getSensorType() == TraceWriter.SENSOR_LIGHT) {
+		    light(t, reader.getX());
+		}
+	    }
+	} finally {
+	    reader.close();
+	}
+    }
+
+    void report(String name) {
+	System.out.println(String.format("%-16s %5d threshold crossings  %4d state changes  %5d restarts avoided  "
+		+ "worst delay %5d ms  light sensor started %d times", name, mMachine.getFlipCount(),
+		mMachine.getChangeCount(), mMachine.getAvoidedCount(), mWorstLatency, mLightStarts));
+    }
+
+    private void advance(long t) {
+	if (mCheckAt <= t) {
+	    mNow = mCheckAt;
+	    mCheckAt = Long.MAX_VALUE;
+	    mMachine.onCheck(mNow);
+	}
+	mNow = t;
+    }
+
+    private void distance(long t, float distance) {
+	if (distance != mLastDistance) {
+	    mLastDistance = distance;
+	    mReadingSince = t;
+	    mMachine.onDistance(t, distance); // the proximity sensor reports changes only
+	}
+    }
+
+    private void light(long t, float lux) {
+	if (mLightOn) {
+	    mMachine.onLight(t, lux);
+	}
+    }
+
+    /********************* PocketStateMachine.IHost ********************/
+
+    @Override
+    public void onPocketStateChanged(int state) {
+	mWorstLatency = Math.max(mWorstLatency, mNow - mReadingSince);
+    }
+
+    @Override
+    public void scheduleCheck(long delayMillis) {
+	mCheckAt = mNow + delayMillis;
+    }
+
+    @Override
+    public void cancelCheck() {
+	mCheckAt = Long.MAX_VALUE;
+    }
+
+    @Override
+    public void startLightSensor() {
+	mLightOn = true;
+	mLightStarts++;
+    }
+
+    @Override
+    public void stopLightSensor() {
+	mLightOn = false;
+    }
+}
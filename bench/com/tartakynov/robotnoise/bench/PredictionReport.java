@@ -0,0 +1,114 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import com.tartakynov.robotnoise.leg.IGaitListener;
+import com.tartakynov.robotnoise.leg.ILegMovementListener;
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+import com.tartakynov.robotnoise.leg.PredictivePlaybackScheduler;
+
+/**
+ * @author Artem Tartakynov
+ * Replays traces through LegMovementEngine and PredictivePlaybackScheduler on a virtual clock. Every sample
+ * reaches the engine after the delivery delay, every sound is heard after the playback startup time.
+ * Reports how many transitions were played ahead, how many sounds were wrong and how far the sound onset
+ * is from the sample which caused the transition, compared to the plain reactive playback.
+ * Usage: PredictionReport [trace.csv|trace.trace ...]
+ */
+public final class PredictionReport implements PredictivePlaybackScheduler.IHost, ILegMovementListener, IGaitListener {
+    private static final long DELIVERY_NANOS 	= 20000000L;
+    private static final long STARTUP_NANOS 	= 40000000L;
+
+    private final PredictivePlaybackScheduler mScheduler = new PredictivePlaybackScheduler(this, STARTUP_NANOS,
+	    PredictivePlaybackScheduler.DEFAULT_TOLERANCE_NANOS);
+    private final LegMovementEngine mEngine = new LegMovementEngine();
+    private long mNow;
+    private long mFireAt = Long.MAX_VALUE;
+    private long mAheadOnset;
+    private int mTransitions;
+    private int mSounds;
+    private double mOnsetSum;
+    private double mAbsOnsetSum;
+    private long mWorstOnset;
+
+    public static void main(String[] args) throws Exception {
+	final ArrayList<WalkingTrace> traces = new ArrayList<WalkingTrace>();
+	traces.add(WalkingTrace.synthetic(100000, 110, 1));
+	traces.add(WalkingTrace.synthetic(100000, 160, 2));
+	for (String path : args) {
+	    traces.add(WalkingTrace.load(new File(path)));
+	}
+	System.out.println(String.format("reactive onset: %.0f ms after the sample", (DELIVERY_NANOS + STARTUP_NANOS) / 1e6));
+	for (WalkingTrace trace : traces) {
+	    new PredictionReport().run(trace);
+	}
+    }
+
+    void run(WalkingTrace trace) {
+	mEngine.addListener(this);
+	mEngine.addGaitListener(this);
+	for (int i = 0; i < trace.length; i++) {
+	    final long deliveredAt = trace.timestamps[i] + DELIVERY_NANOS;
+	    if (mFireAt <= deliveredAt) {
+		mNow = mFireAt;
+		mFireAt = Long.MAX_VALUE;
+		mScheduler.onScheduled(mNow);
+	    }
+	    mNow = deliveredAt;
+	    mEngine.process(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+	}
+	System.out.println(String.format("%-24s %5d transitions  ahead %5.1f%%  wrong sounds %d  cancelled %d  "
+		+ "onset mean %+6.1f ms  mean abs %5.1f ms  worst %+6.1f ms",
+		trace.name, mTransitions, 100.0 * mScheduler.getHitCount() / mTransitions, mScheduler.getMissCount(),
+		mScheduler.getCancelCount(), mOnsetSum / mTransitions / 1e6, mAbsOnsetSum / mTransitions / 1e6, mWorstOnset / 1e6));
+    }
+
+    /********************* ILegMovementListener ************************/
+
+    @Override
+    public void onLegActivity(int activity, long timestampNanos) {
+	final int hits = mScheduler.getHitCount();
+	final int sounds = mSounds;
+	final long onsetIfPlayed = mNow + STARTUP_NANOS - timestampNanos;
+	final long aheadOnset = mAheadOnset - timestampNanos;
+	mScheduler.onLegActivity(activity, timestampNanos, mNow);
+	final long onset = (mScheduler.getHitCount() > hits) ? aheadOnset : onsetIfPlayed;
+	if (mScheduler.getHitCount() == hits && mSounds == sounds) {
+	    throw new IllegalStateException("transition without sound");
+	}
+	mTransitions++;
+	mOnsetSum += onset;
+	mAbsOnsetSum += Math.abs(onset);
+	if (Math.abs(onset) > Math.abs(mWorstOnset)) {
+	    mWorstOnset = onset;
+	}
+    }
+
+    /********************* IGaitListener *******************************/
+
+    @Override
+    public void onGaitChanged(float cadence, long stridePeriodNanos, float regularity, long timestampNanos) {
+	if (cadence == 0) {
+	    mScheduler.reset();
+	}
+    }
+
+    /********************* PredictivePlaybackScheduler.IHost ***********/
+
+    @Override
+    public void play(int activity) {
+	mSounds++;
+	mAheadOnset = mNow + STARTUP_NANOS;
+    }
+
+    @Override
+    public void schedule(long delayNanos) {
+	mFireAt = mNow + delayNanos;
+    }
+
+    @Override
+    public void cancel() {
+	mFireAt = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,157 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.File;
+
+import com.tartakynov.robotnoise.leg.ILegMovementListener;
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+import com.tartakynov.robotnoise.power.WalkingSession;
+
+/**
+ * @author Artem Tartakynov
+ * Feeds a walking trace to WalkingSession with a fake host and a fake wake-up sensor, reports how long
+ * the CPU is kept awake and how many leg movements are missed compared to an always awake detector.
+ * The second case pauses the walk for longer than the idle timeout, the session must go to sleep and be woken up
+ * by the sensor when the walk resumes. A sensor which isn't a wake-up one can't deliver while the CPU sleeps,
+ * so with it the walk after the pause goes unheard. Exits with 1 if the wake-up sensor misses the resumed walk.
+ * Usage: SessionSimulation [trace.csv|trace.trace]
+ */
+public final class SessionSimulation implements WalkingSession.IHost, ILegMovementListener {
+    private static final long IDLE_TIMEOUT 	= 60000;
+    private static final float WAKE_UP_SWING 	= 1.5f; // raw change of Z which fires the fake significant motion sensor
+    private static final int PAUSE_WALK 	= 30; // s before the pause
+    private static final int PAUSE 		= 120; // s, longer than the idle timeout
+
+    private final WalkingSession mSession = new WalkingSession(this, IDLE_TIMEOUT);
+    private final LegMovementEngine mEngine = new LegMovementEngine();
+    private final boolean mIsWakeUpSensor; // fires while the CPU sleeps
+    private long mResumeMillis = Long.MAX_VALUE;
+    private int mMovementsAfterResume;
+    private boolean mWakeLockHeld;
+    private boolean mDetectorRunning;
+    private boolean mWakeUpArmed;
+    private long mCheckAt = Long.MAX_VALUE;
+    private long mNow;
+    private long mAwakeMillis;
+    private int mMovements;
+
+    public static void main(String[] args) throws Exception {
+	final WalkingTrace trace = args.length > 0 ? WalkingTrace.load(new File(args[0])) : WalkingTrace.synthetic(100000, 110, 1);
+	final int reference = new SessionSimulation().run(trace, false);
+	final SessionSimulation simulation = new SessionSimulation();
+	final int detected = simulation.run(trace, true);
+	System.out.println(String.format("%s: awake %.1f%% of %.0f s, %d wake-ups, detected %d of %d leg movements",
+		trace.name, 100.0 * simulation.mAwakeMillis / (trace.seconds() * 1000), trace.seconds(),
+		simulation.mSession.getWakeUpCount(), detected, reference));
+
+	final WalkingTrace pause = WalkingTrace.pause(5000, 110, 3, PAUSE_WALK, PAUSE);
+	boolean failed = false;
+	for (boolean wakeUpSensor : new boolean[] { true, false }) {
+	    final SessionSimulation paused = new SessionSimulation(wakeUpSensor);
+	    paused.mResumeMillis = (PAUSE_WALK + PAUSE) * 1000L;
+	    paused.run(pause, true);
+	    System.out.println(String.format("%s, %s sensor: %d wake-ups, %d leg movements detected after the pause",
+		    pause.name, wakeUpSensor ? "wake-up" : "non-wake-up", paused.mSession.getWakeUpCount(),
+		    paused.mMovementsAfterResume));
+	    // the start isn't a wake-up, only the sensor firing after the pause is
+	    if (paused.mSession.getWakeUpCount() != (wakeUpSensor ? 1 : 0) || (wakeUpSensor && paused.mMovementsAfterResume == 0)) {
+		failed = true;
+	    }
+	}
+	if (failed) {
+	    System.out.println("FAILED: the session didn't wake up once after the pause");
+	    System.exit(1);
+	}
+    }
+
+    SessionSimulation() {
+	this(true);
+    }
+
+    SessionSimulation(boolean wakeUpSensor) {
+	mIsWakeUpSensor = wakeUpSensor;
+    }
+
+    /**
+     * Replays the trace with the phone in pocket, returns number of detected leg movements
+     */
+    int run(WalkingTrace trace, boolean powerSaving) {
+	mEngine.addListener(this);
+	final long start = trace.timestamps[0] / 1000000;
+	long previous = start;
+	mNow = start;
+	if (powerSaving) {
+	    mSession.setInPocket(true, start);
+	    mSession.start(start);
+	} else {
+	    mDetectorRunning = true;
+	}
+	for (int i = 0; i < trace.length; i++) {
+	    final long now = mNow = trace.timestamps[i] / 1000000;
+	    if (mWakeLockHeld) {
+		mAwakeMillis += now - previous;
+	    }
+	    previous = now;
+	    if (now >= mCheckAt) {
+		mCheckAt = Long.MAX_VALUE;
+		mSession.onCheck(now);
+	    }
+	    final boolean cpuAwake = mWakeLockHeld || !powerSaving;
+	    if (mWakeUpArmed && (mIsWakeUpSensor || cpuAwake) && i > 0 && Math.abs(trace.z[i] - trace.z[i - 1]) > WAKE_UP_SWING) {
+		mWakeUpArmed = false;
+		mSession.onWakeUp(now);
+	    }
+	    if (mDetectorRunning) {
+		mEngine.process(trace.timestamps[i], trace.x[i], trace.y[i], trace.z[i]);
+	    }
+	}
+	return mMovements;
+    }
+
+    /********************* ILegMovementListener ************************/
+
+    @Override
+    public void onLegActivity(int activity, long timestampNanos) {
+	mMovements++;
+	if (timestampNanos / 1000000 >= mResumeMillis) {
+	    mMovementsAfterResume++;
+	}
+	mSession.onLegActivity(timestampNanos / 1000000);
+    }
+
+    /********************* WalkingSession.IHost ************************/
+
+    @Override
+    public void acquireWakeLock() {
+	mWakeLockHeld = true;
+    }
+
+    @Override
+    public void releaseWakeLock() {
+	mWakeLockHeld = false;
+    }
+
+    @Override
+    public void startDetector() {
+	mDetectorRunning = true;
+    }
+
+    @Override
+    public void stopDetector() {
+	mDetectorRunning = false;
+    }
+
+    @Override
+    public void armWakeUp() {
+	mWakeUpArmed = true;
+    }
+
+    @Override
+    public void disarmWakeUp() {
+	mWakeUpArmed = false;
+    }
+
+    @Override
+    public void scheduleCheck(long delayMillis) {
+	mCheckAt = mNow + delayMillis;
+    }
+}
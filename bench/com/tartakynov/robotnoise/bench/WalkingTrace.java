@@ -0,0 +1,175 @@
+package com.tartakynov.robotnoise.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import com.tartakynov.robotnoise.trace.TraceReader;
+import com.tartakynov.robotnoise.trace.TraceWriter;
+
+/**
+ * @author Artem Tartakynov
+ * Accelerometer trace held in primitive arrays, either synthetic or loaded from a CSV or binary trace file
+ */
+public final class WalkingTrace {
+    public static final long SAMPLE_PERIOD_NANOS = 60000000L; // same as LEG_SENSOR_RATE
+    private static final float GRAVITY = 9.81f;
+    private static final double SWING = 0.45; // radians, amplitude of the thigh swing in a tight pocket
+
+    public final String name;
+    public final long[] timestamps;
+    public final float[] x;
+    public final float[] y;
+    public final float[] z;
+    public final int length;
+
+    public WalkingTrace(String name, long[] timestamps, float[] x, float[] y, float[] z, int length) {
+	this.name = name;
+	this.timestamps = timestamps;
+	this.x = x;
+	this.y = y;
+	this.z = z;
+	this.length = length;
+    }
+
+    /**
+     * Generates walk of given duration: the thigh swings with stepsPerMinute cadence, every
+     * other minute the user stands still. The phone lies in the pocket with the screen towards the leg
+     */
+    public static WalkingTrace synthetic(int samples, float stepsPerMinute, long seed) {
+	return synthetic(samples, stepsPerMinute, seed, SWING, "synthetic-" + (int) stepsPerMinute + "spm");
+    }
+
+    /**
+     * Generates the same walk with given amplitude of the thigh swing, a loose pocket swings less
+     */
+    public static WalkingTrace synthetic(int samples, float stepsPerMinute, long seed, double swingRadians, String name) {
+	final long minute = 60000000000L;
+	return generate(samples, stepsPerMinute, seed, swingRadians, name, minute, minute, false);
+    }
+
+    /**
+     * Generates a walk with one pause: the user walks, stands still for pauseSeconds and walks again till the end
+     */
+    public static WalkingTrace pause(int samples, float stepsPerMinute, long seed, int walkSeconds, int pauseSeconds) {
+	return generate(samples, stepsPerMinute, seed, SWING, "pause-" + pauseSeconds + "s", walkSeconds * 1000000000L,
+		pauseSeconds * 1000000000L, true);
+    }
+
+    /**
+     * Walks for walkNanos and stands still for standNanos, repeatedly or once
+     */
+    private static WalkingTrace generate(int samples, float stepsPerMinute, long seed, double swingRadians, String name,
+	    long walkNanos, long standNanos, boolean once) {
+	final Random random = new Random(seed);
+	final long[] t = new long[samples];
+	final float[] x = new float[samples];
+	final float[] y = new float[samples];
+	final float[] z = new float[samples];
+	final double strideHz = stepsPerMinute / 120.0;
+	for (int i = 0; i < samples; i++) {
+	    t[i] = i * SAMPLE_PERIOD_NANOS;
+	    final boolean walking = once ? (t[i] < walkNanos || t[i] >= walkNanos + standNanos)
+		    : t[i] % (walkNanos + standNanos) < walkNanos;
+	    final double swing = walking ? swingRadians * Math.sin(2 * Math.PI * strideHz * t[i] / 1e9) : 0;
+	    x[i] = (float) (0.3 * random.nextGaussian());
+	    y[i] = (float) (GRAVITY * Math.cos(swing) + 0.2 * random.nextGaussian());
+	    z[i] = (float) (GRAVITY * Math.sin(swing) + 0.2 * random.nextGaussian());
+	}
+	return new WalkingTrace(name, t, x, y, z, samples);
+    }
+
+    /**
+     * Loads accelerometer samples from a binary trace written by TraceWriter
+     */
+    public static WalkingTrace loadTrace(File file) throws IOException {
+	final TraceReader reader = new TraceReader(file);
+	try {
+	    final int capacity = reader.getRecordCount();
+	    final long[] t = new long[capacity];
+	    final float[] x = new float[capacity];
+	    final float[] y = new float[capacity];
+	    final float[] z = new float[capacity];
+	    final int length = reader.read(TraceWriter.SENSOR_ACCELEROMETER, t, x, y, z, 0, capacity);
+	    return new WalkingTrace(file.getName(), t, x, y, z, length);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /**
+     * Loads trace from a binary trace (*.trace) or CSV file with "timestampNanos,x,y,z" lines,
+     * lines starting with # are skipped
+     */
+    public static WalkingTrace load(File file) throws IOException {
+	if (file.getName().endsWith(".trace")) {
+	    return loadTrace(file);
+	}
+	int capacity = 1024;
+	long[] t = new long[capacity];
+	float[] x = new float[capacity];
+	float[] y = new float[capacity];
+	float[] z = new float[capacity];
+	int length = 0;
+	final BufferedReader reader = new BufferedReader(new FileReader(file));
+	try {
+	    String line;
+	    while ((line = reader.readLine()) != null) {
+		if (line.length() == 0 || line.charAt(0) == '#') {
+		    continue;
+		}
+		final String[] parts = line.split(",");
+		if (length == capacity) {
+		    capacity *= 2;
+		    t = copyOf(t, capacity);
+		    x = copyOf(x, capacity);
+		    y = copyOf(y, capacity);
+		    z = copyOf(z, capacity);
+		}
+		t[length] = Long.parseLong(parts[0].trim());
+		x[length] = Float.parseFloat(parts[1].trim());
+		y[length] = Float.parseFloat(parts[2].trim());
+		z[length] = Float.parseFloat(parts[3].trim());
+		length++;
+	    }
+	} finally {
+	    reader.close();
+	}
+	return new WalkingTrace(file.getName(), t, x, y, z, length);
+    }
+
+    /**
+     * Writes accelerometer samples to a binary trace
+     */
+    public void save(File file) throws IOException {
+	final TraceWriter writer = new TraceWriter(file);
+	try {
+	    for (int i = 0; i < length; i++) {
+		writer.write(TraceWriter.SENSOR_ACCELEROMETER, timestamps[i], x[i], y[i], z[i]);
+	    }
+	} finally {
+	    writer.close();
+	}
+    }
+
+    /**
+     * Duration of the trace in seconds
+     */
+    public double seconds() {
+	return length == 0 ? 0 : (timestamps[length - 1] - timestamps[0]) / 1e9;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+	final long[] copy = new long[length];
+	System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+	return copy;
+    }
+
+    private static float[] copyOf(float[] array, int length) {
+	final float[] copy = new float[length];
+	System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+	return copy;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is auto-generated.  DO NOT MODIFY.
+ * Original file: src/com/tartakynov/robotnoise/IRobotService.aidl
+ */
+package com.tartakynov.robotnoise;
+/**
+ * Controls RobotService which runs in its own process
+ */
+public interface IRobotService extends android.os.IInterface
+{
+/** Local-side IPC implementation stub class. */
+public static abstract class Stub extends android.os.Binder implements com.tartakynov.robotnoise.IRobotService
+{
+private static final java.lang.String DESCRIPTOR = "com.tartakynov.robotnoise.IRobotService";
+/** Construct the stub at attach it to the interface. */
+public Stub()
+{
+this.attachInterface(this, DESCRIPTOR);
+}
+/**
+ * Cast an IBinder object into an com.tartakynov.robotnoise.IRobotService interface,
+ * generating a proxy if needed.
+ */
+public static com.tartakynov.robotnoise.IRobotService asInterface(android.os.IBinder obj)
+{
+if ((obj==null)) {
+return null;
+}
+android.os.IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+if (((iin!=null)&&(iin instanceof com.tartakynov.robotnoise.IRobotService))) {
+return ((com.tartakynov.robotnoise.IRobotService)iin);
+}
+return new com.tartakynov.robotnoise.IRobotService.Stub.Proxy(obj);
+}
+@Override public android.os.IBinder asBinder()
+{
+return this;
+}
+@Override public boolean onTransact(int code, android.os.Parcel data, android.os.Parcel reply, int flags) throws android.os.RemoteException
+{
+switch (code)
+{
+case INTERFACE_TRANSACTION:
+{
+reply.writeString(DESCRIPTOR);
+return true;
+}
+case TRANSACTION_start:
+{
+data.enforceInterface(DESCRIPTOR);
+this.start();
+reply.writeNoException();
+return true;
+}
+case TRANSACTION_stop:
+{
+data.enforceInterface(DESCRIPTOR);
+this.stop();
+reply.writeNoException();
+return true;
+}
+case TRANSACTION_isStarted:
+{
+data.enforceInterface(DESCRIPTOR);
+boolean _result = this.isStarted();
+reply.writeNoException();
+reply.writeInt(((_result)?(1):(0)));
+return true;
+}
+case TRANSACTION_setVolume:
+{
+data.enforceInterface(DESCRIPTOR);
+float _arg0;
+_arg0 = data.readFloat();
+this.setVolume(_arg0);
+return true;
+}
+case TRANSACTION_getTelemetry:
+{
+data.enforceInterface(DESCRIPTOR);
+long _arg0;
+_arg0 = data.readLong();
+com.tartakynov.robotnoise.RobotTelemetry _result = this.getTelemetry(_arg0);
+reply.writeNoException();
+if ((_result!=null)) {
+reply.writeInt(1);
+_result.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+}
+else {
+reply.writeInt(0);
+}
+return true;
+}
+}
+return super.onTransact(code, data, reply, flags);
+}
+private static class Proxy implements com.tartakynov.robotnoise.IRobotService
+{
+private android.os.IBinder mRemote;
+Proxy(android.os.IBinder remote)
+{
+mRemote = remote;
+}
+@Override public android.os.IBinder asBinder()
+{
+return mRemote;
+}
+public java.lang.String getInterfaceDescriptor()
+{
+return DESCRIPTOR;
+}
+@Override public void start() throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+mRemote.transact(Stub.TRANSACTION_start, _data, _reply, 0);
+_reply.readException();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+}
+@Override public void stop() throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+mRemote.transact(Stub.TRANSACTION_stop, _data, _reply, 0);
+_reply.readException();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+}
+@Override public boolean isStarted() throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+boolean _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+mRemote.transact(Stub.TRANSACTION_isStarted, _data, _reply, 0);
+_reply.readException();
+_result = (0!=_reply.readInt());
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+/**
+     * Doesn't wait for the service, the caller limits the rate while the volume dial is dragged
+     */
+@Override public void setVolume(float volume) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeFloat(volume);
+mRemote.transact(Stub.TRANSACTION_setVolume, _data, null, android.os.IBinder.FLAG_ONEWAY);
+}
+finally {
+_data.recycle();
+}
+}
+/**
+     * Returns the current state and leg movements detected after the given sequence, 0 for all kept ones
+     */
+@Override public com.tartakynov.robotnoise.RobotTelemetry getTelemetry(long sinceSequence) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+com.tartakynov.robotnoise.RobotTelemetry _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeLong(sinceSequence);
+mRemote.transact(Stub.TRANSACTION_getTelemetry, _data, _reply, 0);
+_reply.readException();
+if ((0!=_reply.readInt())) {
+_result = com.tartakynov.robotnoise.RobotTelemetry.CREATOR.createFromParcel(_reply);
+}
+else {
+_result = null;
+}
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+}
+static final int TRANSACTION_start = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
+static final int TRANSACTION_stop = (android.os.IBinder.FIRST_CALL_TRANSACTION + 1);
+static final int TRANSACTION_isStarted = (android.os.IBinder.FIRST_CALL_TRANSACTION + 2);
+static final int TRANSACTION_setVolume = (android.os.IBinder.FIRST_CALL_TRANSACTION + 3);
+static final int TRANSACTION_getTelemetry = (android.os.IBinder.FIRST_CALL_TRANSACTION + 4);
+}
+public void start() throws android.os.RemoteException;
+public void stop() throws android.os.RemoteException;
+public boolean isStarted() throws android.os.RemoteException;
+/**
+     * Doesn't wait for the service, the caller limits the rate while the volume dial is dragged
+     */
+public void setVolume(float volume) throws android.os.RemoteException;
+/**
+     * Returns the current state and leg movements detected after the given sequence, 0 for all kept ones
+     */
+public com.tartakynov.robotnoise.RobotTelemetry getTelemetry(long sinceSequence) throws android.os.RemoteException;
+}
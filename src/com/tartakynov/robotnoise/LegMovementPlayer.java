@@ -1,91 +1,167 @@
 package com.tartakynov.robotnoise;
 
+import com.tartakynov.robotnoise.audio.AudioFocusController;
+import com.tartakynov.robotnoise.audio.IPlaybackEngine;
+import com.tartakynov.robotnoise.audio.SoundPack;
+import com.tartakynov.robotnoise.util.LatencyTracker;
+
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.AudioManager.OnAudioFocusChangeListener;
-import android.media.MediaPlayer;
 
 /**
  * @author Artem Tartakynov
- * Plays the sounds of leg movement
+ * Plays the sounds of leg movement. The clips stay loaded while the audio focus is lost,
+ * the playback is paused or ducked by AudioFocusController
  */
-public class LegMovementPlayer implements OnAudioFocusChangeListener {	
-    private final static int PLAYER_FORWARD 	= 0;
-    private final static int PLAYER_BACKWARD 	= 1;
+public class LegMovementPlayer implements OnAudioFocusChangeListener {
+
+    /**
+     * @author Artem Tartakynov
+     * Receives notification that the player became able to play: the clips are loaded and the audio focus is held
+     */
+    public interface IListener {
+	void onReady();
+    }
 
-    private final AudioManager mAudioManager;	
+    private final static int SOUND_FORWARD 	= 0;
+    private final static int SOUND_BACKWARD 	= 1;
+    private final static int[] SOUNDS		= new int[] { R.raw.forward, R.raw.backward };
+    public final static String[] SOUND_NAMES	= new String[] { "forward", "backward" }; // file prefixes of a sound pack directory
+
+    private final AudioManager mAudioManager;
     private final Context mContext;
-    private MediaPlayer[] mPlayers = new MediaPlayer[2];
+    private final IPlaybackEngine mEngine;
+    private final AudioFocusController mFocus;
     private Object mSync = new Object();
+    private SoundPack mPack = createDefaultPack();
+    private boolean mIsLoaded = false; // load() has been called
+    private boolean mIsEngineLoaded = false; // the engine reported the clips ready
+    private boolean mIsReleased = false;
     private boolean mCanPlay = false;
     private float mVolume;
+    private float mFocusGain = 1.0f;
+    private LatencyTracker mLatency;
+    private IListener mListener;
 
-    public LegMovementPlayer(Context context) {
+    public LegMovementPlayer(Context context, IPlaybackEngine engine) {
 	this.mContext = context;
+	this.mEngine = engine;
 	this.mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
 	final int  maxVolume = mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
 	mAudioManager.setStreamVolume(AudioManager.STREAM_MUSIC, maxVolume, 0);
-	int result = mAudioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
-	if (result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED) {
-	    init();
-	}
+	mFocus = new AudioFocusController(mFocusRequester, mFocusListener);
+	mEngine.setListener(mEngineListener);
     }
 
     /********************* Public methods ******************************/
 
     /**
-     * Plays forward movement sound
+     * Plays forward movement sound, returns false if playback isn't allowed now
      */
-    public void playForward() {
-	play(PLAYER_FORWARD);
+    public boolean playForward() {
+	return play(SOUND_FORWARD);
     }
 
     /**
-     * Plays backward movement sound
+     * Plays backward movement sound, returns false if playback isn't allowed now
      */
-    public void playBackward() {
-	play(PLAYER_BACKWARD);		
+    public boolean playBackward() {
+	return play(SOUND_BACKWARD);
     }
 
     /**
-     * Sets volume
+     * Creates pack of the built-in sounds
      */
-    public void setVolume(float volume) {	
-	mVolume = volume;	
-	for (MediaPlayer player : mPlayers) {
-	    if (player != null) {
-		player.setVolume(volume, volume);
+    public static SoundPack createDefaultPack() {
+	return SoundPack.fromResources("default", SOUNDS);
+    }
+
+    /**
+     * Sets tracker which receives playback start latency
+     */
+    public void setLatencyTracker(LatencyTracker tracker) {
+	mLatency = tracker;
+    }
+
+    /**
+     * Sets listener which is notified every time the player becomes ready, it may be called on any thread
+     */
+    public void setListener(IListener listener) {
+	mListener = listener;
+    }
+
+    /**
+     * Switches to another sound pack, a pack without clips for some movement is ignored
+     */
+    public void setSoundPack(SoundPack pack) {
+	if (!pack.isComplete()) {
+	    return;
+	}
+	synchronized (mSync) {
+	    mPack = pack;
+	    if (mIsLoaded) {
+		mIsEngineLoaded = false;
+		mEngine.load(mContext, mPack);
 	    }
 	}
     }
 
     /**
-     * Call this method when you are done with this instance
-     */ 
+     * Sets volume
+     */
+    public void setVolume(float volume) {
+	synchronized (mSync) {
+	    mVolume = volume;
+	    mEngine.setVolume(volume * mFocusGain);
+	}
+    }
+
+    /**
+     * Call this method when you are done with this instance, gives the audio focus up
+     */
     public void release() {
+	mFocus.stop();
 	synchronized (mSync) {
-	    for (int i = 0; i < mPlayers.length; i++) {
-		if (mCanPlay) {
-		    if (mPlayers[i].isPlaying()) mPlayers[i].stop();
-		    mPlayers[i].release();
-		    mPlayers[i] = null;					
-		    mCanPlay = false;				
-		}
-	    }			
+	    mEngine.release();
+	    mIsLoaded = false;
+	    mIsEngineLoaded = false;
+	    mIsReleased = true;
+	    mCanPlay = false;
 	}
     }
 
     /**
-     * Initializes current instance
-     */ 
+     * Loads the clips unless they are loaded already, may be called on a background thread ahead of init().
+     * Does nothing after release()
+     */
+    public void load() {
+	synchronized (mSync) {
+	    if (!mIsLoaded && !mIsReleased) {
+		mIsLoaded = true; // set first, the engine may report the clips ready from load()
+		mIsEngineLoaded = false;
+		mEngine.load(mContext, mPack);
+		mEngine.setVolume(mVolume * mFocusGain);
+	    }
+	}
+    }
+
+    /**
+     * Loads the clips and requests the audio focus
+     */
     public void init() {
 	synchronized (mSync) {
-	    mPlayers[PLAYER_FORWARD] = MediaPlayer.create(mContext, R.raw.forward);
-	    mPlayers[PLAYER_BACKWARD] = MediaPlayer.create(mContext, R.raw.backward);
-	    mPlayers[PLAYER_FORWARD].setVolume(mVolume, mVolume);
-	    mPlayers[PLAYER_BACKWARD].setVolume(mVolume, mVolume);
-	    mCanPlay = true;							
+	    mIsReleased = false;
 	}
+	load();
+	mFocus.start();
+    }
+
+    /**
+     * Requests the audio focus without loading the clips, sounds are played once both are ready
+     */
+    public void requestFocus() {
+	mFocus.start();
     }
 
     /********************* OnAudioFocusChangeListener ******************/
@@ -95,30 +171,92 @@ public class LegMovementPlayer implements OnAudioFocusChangeListener {
      */
     @Override
     public void onAudioFocusChange(int focusChange) {
-	synchronized (mSync) {
-	    switch (focusChange) {
-	    case AudioManager.AUDIOFOCUS_GAIN:
-		init();
-		break;
-	    case AudioManager.AUDIOFOCUS_LOSS:
-		release();
-		break;
-	    case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
-	    case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
-		mCanPlay = false;				
-		break;		
-	    }
+	switch (focusChange) {
+	case AudioManager.AUDIOFOCUS_GAIN:
+	    mFocus.onGain();
+	    break;
+	case AudioManager.AUDIOFOCUS_LOSS:
+	    mFocus.onLoss();
+	    break;
+	case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT:
+	    mFocus.onLossTransient();
+	    break;
+	case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK:
+	    mFocus.onLossTransientCanDuck();
+	    break;
 	}
     }
 
+    /********************* Audio focus *********************************/
+
+    private final AudioFocusController.IFocusRequester mFocusRequester = new AudioFocusController.IFocusRequester() {
+	@Override
+	public boolean requestFocus() {
+	    return mAudioManager.requestAudioFocus(LegMovementPlayer.this, AudioManager.STREAM_MUSIC,
+		    AudioManager.AUDIOFOCUS_GAIN) == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+	}
+
+	@Override
+	public void abandonFocus() {
+	    mAudioManager.abandonAudioFocus(LegMovementPlayer.this);
+	}
+    };
+
+    private final AudioFocusController.IListener mFocusListener = new AudioFocusController.IListener() {
+	@Override
+	public void onPlaybackChanged(boolean canPlay, float gain) {
+	    final boolean ready;
+	    synchronized (mSync) {
+		ready = canPlay && !mCanPlay && mIsEngineLoaded;
+		mCanPlay = canPlay;
+		mFocusGain = gain;
+		mEngine.setVolume(mVolume * gain);
+	    }
+	    if (ready) {
+		notifyReady();
+	    }
+	}
+    };
+
+    /********************* Playback engine *****************************/
+
+    private final IPlaybackEngine.IListener mEngineListener = new IPlaybackEngine.IListener() {
+	@Override
+	public void onLoaded() {
+	    final boolean ready;
+	    synchronized (mSync) {
+		ready = mCanPlay && !mIsEngineLoaded && mIsLoaded;
+		mIsEngineLoaded = mIsLoaded; // a late report after release() is ignored
+	    }
+	    if (ready) {
+		notifyReady();
+	    }
+	}
+    };
+
     /********************* Private methods *****************************/
 
+    private void notifyReady() {
+	final IListener listener = mListener;
+	if (listener != null) {
+	    listener.onReady();
+	}
+    }
+
     /**
-     * Plays specified player if it's allowed
+     * Plays specified sound if it's allowed, may be called from the sensor thread
      */
-    private void play(int player) {
-	if (mCanPlay) {
-	    mPlayers[player].start();			
+    private boolean play(int sound) {
+	synchronized (mSync) {
+	    if (mCanPlay && mIsLoaded) {
+		final long start = (LatencyTracker.ENABLED && mLatency != null) ? System.nanoTime() : 0;
+		mEngine.play(sound);
+		if (LatencyTracker.ENABLED && mLatency != null) {
+		    mLatency.recordSince(LatencyTracker.STAGE_DISPATCH, start);
+		}
+		return true;
+	    }
+	    return false;
 	}
     }
 }
@@ -1,13 +1,20 @@
 package com.tartakynov.robotnoise;
 
-import com.google.android.apps.analytics.GoogleAnalyticsTracker;
 import com.flurry.android.FlurryAgent;
 import com.tartakynov.robotnoise.Preferences.OnPreferenceChangeListener;
 import com.tartakynov.robotnoise.VolumeCircleView.ICircleAngleChanged;
+import com.tartakynov.robotnoise.analytics.Analytics;
+import com.tartakynov.robotnoise.analytics.AnalyticsDispatcher;
+import com.tartakynov.robotnoise.analytics.AnalyticsEvent;
+import com.tartakynov.robotnoise.audio.VolumeChannel;
+import com.tartakynov.robotnoise.util.StartupTrace;
 
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.app.Activity;
 import android.app.Dialog;
@@ -23,6 +30,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -31,38 +39,58 @@ public class MainActivity extends Activity {
 
     public static final String LOG_TAG = "MainActivity";
 
-    private RobotService mService;
+    private IRobotService mService;
     private Vibrator mVibrator;
     private boolean mIsServiceBound = false;
     private Button mPowerButton;
     private VolumeCircleView mCircleView;
     private Preferences mPreferences;
-    private GoogleAnalyticsTracker mGATracker;
+    private AnalyticsDispatcher mAnalytics;
+    private final Handler mHandler = new Handler();
+    private VolumeChannel mVolumeChannel;
+    private StartupTrace mStartup;
+    private boolean mIsAnalyticsStarted = false;
 
     /********************* Activity ************************************/
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
-	super.onCreate(savedInstanceState);		
+	mStartup = new StartupTrace(LOG_TAG);
+	super.onCreate(savedInstanceState);
+	// neither needs the layout, the service process and the preferences get ready while it's inflated
+	doStartService();
+	doBindService();
+	Preferences.preload(getApplicationContext());
 	setContentView(R.layout.activity_main);
+	mStartup.mark("content view");
 
 	mPowerButton = (Button)findViewById(R.id.button_power);
 	mVibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);	
+	mVolumeChannel = new VolumeChannel(mVolumeHost, VolumeChannel.DEFAULT_INTERVAL_MILLIS);
 
 	mPreferences = Preferences.Open(getApplicationContext());
 	mPreferences.registerPreferenceChangeListener(mPreferenceChangeListener);
+	mStartup.mark("preferences");
 	mCircleView = (VolumeCircleView)findViewById(R.id.imageView1);
 	mCircleView.registerListener(mAngleChangeListener);
 	mCircleView.setAngle(mPreferences.getAngle());
 
-	startAnalyticsSession();
-	doStartService();
-	doBindService();
+	// analytics aren't needed to show the screen, they are started after the first frame
+	getWindow().getDecorView().getViewTreeObserver().addOnPreDrawListener(mFirstFrameListener);
+    }
+
+    @Override
+    protected void onPause() {
+	super.onPause();
+	mPreferences.flush();
     }
 
     @Override
     protected void onDestroy() {		
 	super.onDestroy();
+	mPreferences.unregisterPreferenceChangeListener(mPreferenceChangeListener);
+	mHandler.removeCallbacks(mSendVolume);
+	mHandler.removeCallbacks(mFirstFrameDrawn);
 	doUnbindService();
 	stopAnalyticsSession();
     }	
@@ -104,33 +132,100 @@ public class MainActivity extends Activity {
     public void onPowerButtonClick(View view) {
 	Button btn = (Button)view;	
 	if (mService != null) {
-	    if (mService.isStarted()) {
-		mService.stop();
-	    } else {
-		mService.start();		
-		Toast.makeText(this, R.string.robot_power_on, Toast.LENGTH_SHORT).show();
-		if (mGATracker != null) {
-		    mGATracker.dispatch();
+	    try {
+		if (mService.isStarted()) {
+		    mService.stop();
+		} else {
+		    mService.start();		
+		    Toast.makeText(this, R.string.robot_power_on, Toast.LENGTH_SHORT).show();
+		    if (mAnalytics != null) {
+			mAnalytics.flush();
+		    }
 		}
+		btn.setSelected(mService.isStarted());
+	    } catch (RemoteException e) {
+		Log.e(LOG_TAG, "Service is dead", e);
 	    }
-	    btn.setSelected(mService.isStarted());
 	    if (mVibrator != null) {
 		mVibrator.vibrate(75);
 	    }
 	}
     }
 
+    /******************* Startup **************************************/
+
+    /**
+     * Called before the first frame is drawn, the frame is on screen when the posted runnable runs
+     */
+    private final OnPreDrawListener mFirstFrameListener = new OnPreDrawListener() {
+	@Override
+	public boolean onPreDraw() {
+	    getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+	    mHandler.post(mFirstFrameDrawn);
+	    return true;
+	}
+    };
+
+    private final Runnable mFirstFrameDrawn = new Runnable() {
+	@Override
+	public void run() {
+	    mStartup.mark("first frame");
+	    Log.i(LOG_TAG, mStartup.toString());
+	    startAnalyticsSession();
+	}
+    };
+
     /******************* Working with VolumeCircleView ****************/
 
     private ICircleAngleChanged mAngleChangeListener = new ICircleAngleChanged() {
 
+	/**
+	 * The dial is released, only the final angle is saved
+	 */
 	@Override
 	public void onAngleChanged(int angle) {	    
+	    setVolumeAngle(angle, true);
 	    if (mPreferences != null) {
 		mPreferences.setAngle(angle);
 	    }
 	}
 
+	@Override
+	public void onAngleDragged(int angle) {
+	    setVolumeAngle(angle, false);
+	}
+
+    };
+
+    /******************* Working with VolumeChannel *******************/
+
+    /**
+     * Delivers the volume to the service, the channel calls it at most once per its interval
+     */
+    private final VolumeChannel.IHost mVolumeHost = new VolumeChannel.IHost() {
+	@Override
+	public void send(float volume) {
+	    if (mService != null) {
+		try {
+		    mService.setVolume(volume);
+		} catch (RemoteException e) {
+		    Log.e(LOG_TAG, "Service is dead", e);
+		}
+	    }
+	}
+
+	@Override
+	public void schedule(long delayMillis) {
+	    mHandler.removeCallbacks(mSendVolume);
+	    mHandler.postDelayed(mSendVolume, delayMillis);
+	}
+    };
+
+    private final Runnable mSendVolume = new Runnable() {
+	@Override
+	public void run() {
+	    mVolumeChannel.onScheduled(SystemClock.uptimeMillis());
+	}
     };
 
     /******************* Working with Preferences *********************/
@@ -138,8 +233,10 @@ public class MainActivity extends Activity {
     private OnPreferenceChangeListener mPreferenceChangeListener = new OnPreferenceChangeListener() {
 
 	@Override
-	public void onPreferenceChanged(Preferences pref) {
-	    setVolumeAngle(mService, pref.getAngle());
+	public void onPreferenceChanged(Preferences pref, String key) {
+	    if (Preferences.KEY_ANGLE.equals(key)) {
+		setVolumeAngle(pref.getAngle(), true);
+	    }
 	}
 
     };
@@ -150,9 +247,14 @@ public class MainActivity extends Activity {
 	@Override
 	public void onServiceConnected(ComponentName className, IBinder service) {
 	    Log.i(LOG_TAG, "Service connected");
-	    mService = ((RobotService.RobotBinder)service).getService();
-	    setVolumeAngle(mService, mPreferences.getAngle());
-	    mPowerButton.setSelected(mService.isStarted());
+	    mService = IRobotService.Stub.asInterface(service);
+	    mVolumeChannel.reset();
+	    setVolumeAngle(mPreferences.getAngle(), true);
+	    try {
+		mPowerButton.setSelected(mService.isStarted());
+	    } catch (RemoteException e) {
+		Log.e(LOG_TAG, "Service is dead", e);
+	    }
 	}
 
 	@Override
@@ -185,44 +287,47 @@ public class MainActivity extends Activity {
     }
 
     /***
-     * Starts service if it's not running already
+     * Starts service, does nothing if it's running already. The service lives in another process,
+     * so it can't be asked whether it's running without binding
      */
     private void doStartService() {
-	if (!RobotService.isRunning()) {
-	    Log.i(LOG_TAG, "startService");
-	    startService(new Intent(MainActivity.this, RobotService.class));		
-	}
+	Log.i(LOG_TAG, "startService");
+	startService(new Intent(MainActivity.this, RobotService.class));		
     }
 
     /***
      * Stops service if it's running
      */
     private void doStopService() {
-	if (RobotService.isRunning())
-	{
-	    Log.i(LOG_TAG, "stopService");
-	    stopService(new Intent(this, RobotService.class));
-	}
+	Log.i(LOG_TAG, "stopService");
+	stopService(new Intent(this, RobotService.class));
     }
 
     /********************* Working with Analytics **********************/
 
     private void startAnalyticsSession() {
-	if (!isDebuggable()) {	    
-	    mGATracker = GoogleAnalyticsTracker.getInstance(); 
-	    mGATracker.startNewSession(getResources().getString(R.string.ganalytics), this);
-	    mGATracker.trackPageView("/MainActivity");
-	    FlurryAgent.onStartSession(this, getResources().getString(R.string.flurry));	    
+	if (!mIsAnalyticsStarted) {
+	    mIsAnalyticsStarted = true;
+	    mAnalytics = Analytics.Open(getApplicationContext()); // debug builds only log the events
+	    mAnalytics.track(AnalyticsEvent.pageView("/MainActivity"));
+	    if (!isDebuggable()) {
+		FlurryAgent.onStartSession(this, getResources().getString(R.string.flurry));
+	    }
 	    Log.i(LOG_TAG, "Started analytics sessions");
 	}
     }
 
+    /**
+     * Asks the dispatcher to send the queue on its thread, nothing is sent on the main thread
+     */
     private void stopAnalyticsSession() {
-	if (mGATracker != null) {
-	    mGATracker.dispatch();
-	    mGATracker.stopSession();
+	if (mIsAnalyticsStarted) {
+	    mAnalytics.flush();
+	    if (!isDebuggable()) {
+		FlurryAgent.onEndSession(this);
+	    }
+	    mIsAnalyticsStarted = false;
 	}
-	FlurryAgent.onEndSession(this);
     }
 
     /********************* Private methods *****************************/
@@ -276,12 +381,13 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Set application volume by angle of potentiometer
+     * Set application volume by angle of potentiometer, now or when the channel lets it through
      */
-    private static final void setVolumeAngle(RobotService service, int angle) {
-	if (service != null) {
-	    float volume = map(360.0f, 1.0f, angle);
-	    service.setVolume(volume);	    
+    private void setVolumeAngle(int angle, boolean now) {
+	final long uptime = SystemClock.uptimeMillis();
+	mVolumeChannel.set(map(360.0f, 1.0f, angle), uptime);
+	if (now) {
+	    mVolumeChannel.flush(uptime);
 	}
     }
 
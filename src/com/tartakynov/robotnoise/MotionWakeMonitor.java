@@ -0,0 +1,153 @@
+package com.tartakynov.robotnoise;
+
+import android.annotation.TargetApi;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+
+/**
+ * @author Artem Tartakynov
+ * Wakes the service up when the user starts moving, using significant motion sensor (API 18+)
+ * or the wake-up variant of step detector (API 21+). The default step detector isn't a wake-up sensor,
+ * its events wait until something else wakes the CPU, so it's never used. Every wake-up holds a short wakelock, so the CPU doesn't fall asleep
+ * before the listener has been called on the handler's thread
+ */
+public class MotionWakeMonitor {
+
+    /**
+     * @author Artem Tartakynov
+     * Used for receiving notifications from the MotionWakeMonitor when the user moves
+     */
+    public interface IMotionWakeListener {
+	/**
+	 * Called on the handler's thread
+	 */
+	void onMotionWakeUp();
+    }
+
+    private static final long WAKE_UP_TIMEOUT 	= 5000; // ms
+    private static final String WAKELOCK 	= "WL_MOTION";
+
+    private final SensorManager mSensorManager;
+    private final Handler mHandler;
+    private final IMotionWakeListener mListener;
+    private final PowerManager.WakeLock mWakeLock;
+    private final Sensor mSensor;
+    private final Object mTrigger; // TriggerEventListener, kept as Object so the class loads on old devices
+    private boolean mIsArmed = false;
+
+    /**
+     * Returns monitor which uses the best available sensor, or null if the device has none
+     */
+    public static MotionWakeMonitor create(SensorManager sensorManager, PowerManager powerManager,
+	    Handler handler, IMotionWakeListener listener) {
+	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+	    Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+	    if (sensor != null) {
+		return new MotionWakeMonitor(sensorManager, powerManager, handler, listener, sensor);
+	    }
+	}
+	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+	    Sensor sensor = getWakeUpStepDetector(sensorManager);
+	    if (sensor != null) {
+		return new MotionWakeMonitor(sensorManager, powerManager, handler, listener, sensor);
+	    }
+	}
+	return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Sensor getWakeUpStepDetector(SensorManager sensorManager) {
+	final Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR, true);
+	return (sensor != null && sensor.isWakeUpSensor()) ? sensor : null;
+    }
+
+    private MotionWakeMonitor(SensorManager sensorManager, PowerManager powerManager, Handler handler,
+	    IMotionWakeListener listener, Sensor sensor) {
+	mSensorManager = sensorManager;
+	mHandler = handler;
+	mListener = listener;
+	mSensor = sensor;
+	mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK);
+	mWakeLock.setReferenceCounted(false);
+	mTrigger = (sensor.getType() == Sensor.TYPE_SIGNIFICANT_MOTION) ? createTrigger() : null;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Starts waiting for motion, the listener is called once per arm()
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void arm() {
+	if (mIsArmed) return;
+	mIsArmed = true;
+	if (mTrigger != null) {
+	    mSensorManager.requestTriggerSensor((TriggerEventListener) mTrigger, mSensor);
+	} else {
+	    mSensorManager.registerListener(mStepListener, mSensor, SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+	}
+    }
+
+    /**
+     * Stops waiting for motion
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void disarm() {
+	if (!mIsArmed) return;
+	mIsArmed = false;
+	if (mTrigger != null) {
+	    mSensorManager.cancelTriggerSensor((TriggerEventListener) mTrigger, mSensor);
+	} else {
+	    mSensorManager.unregisterListener(mStepListener);
+	}
+    }
+
+    /********************* Private methods *****************************/
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private Object createTrigger() {
+	return new TriggerEventListener() {
+	    @Override
+	    public void onTrigger(TriggerEvent event) {
+		wakeUp();
+	    }
+	};
+    }
+
+    /**
+     * Keeps the CPU awake until the listener is called
+     */
+    private void wakeUp() {
+	mWakeLock.acquire(WAKE_UP_TIMEOUT);
+	mHandler.post(mNotify);
+    }
+
+    private final Runnable mNotify = new Runnable() {
+	@Override
+	public void run() {
+	    if (mIsArmed) {
+		disarm();
+		mListener.onMotionWakeUp();
+	    }
+	    mWakeLock.release();
+	}
+    };
+
+    private final SensorEventListener mStepListener = new SensorEventListener() {
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	}
+
+	@Override
+	public void onSensorChanged(SensorEvent event) {
+	    wakeUp();
+	}
+    };
+}
@@ -1,16 +1,25 @@
 package com.tartakynov.robotnoise;
 
-import java.util.ArrayList;
+import java.io.IOException;
+
+import com.tartakynov.robotnoise.pocket.PocketStateMachine;
+import com.tartakynov.robotnoise.trace.TraceWriter;
+import com.tartakynov.robotnoise.util.ListenerRegistry;
+import com.tartakynov.robotnoise.util.Logger;
 
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * @author Artem Tartakynov
- * Detects whether is your phone in the pocket or not using proximity sensor
+ * Detects whether is your phone in the pocket or not using proximity sensor, confirmed by the light sensor
+ * if the device has one. The readings are debounced by PocketStateMachine
  */
 public class PocketDetector implements SensorEventListener {
     /**
@@ -30,20 +39,42 @@ public class PocketDetector implements SensorEventListener {
     }
 
     protected final static String LOG_TAG = "PocketDetector"; 
+    protected final static Logger LOG = new Logger(LOG_TAG);
     protected final static float DISTANCE_THRESHOLD = 2.0f;  // 2cm
-    protected final static int STATE_NONE 			= 0; // undetermined state 
-    protected final static int STATE_IN_POCKET 		= 1; // phone in the pocket
-    protected final static int STATE_OUT_OF_POCKET 	= 2; // phone out of pocket
-
-    private final ArrayList<IInPocketListener> mListeners = new ArrayList<IInPocketListener>();
+    protected final static float DISTANCE_THRESHOLD_FAR = 3.0f; // readings in between don't change the state
+    protected final static long IN_DEBOUNCE 		= 1000; // ms
+    protected final static long OUT_DEBOUNCE 		= 300; // ms, the sound must stop soon after the phone is taken out
+    protected final static long MAX_LATENCY 		= 2000; // ms, the longest wait for the light sensor
+    protected final static int STATE_NONE 			= PocketStateMachine.STATE_NONE; // undetermined state 
+    protected final static int STATE_IN_POCKET 		= PocketStateMachine.STATE_IN_POCKET; // phone in the pocket
+    protected final static int STATE_OUT_OF_POCKET 	= PocketStateMachine.STATE_OUT_OF_POCKET; // phone out of pocket
+
+    private final ListenerRegistry<IInPocketListener> mListeners = new ListenerRegistry<IInPocketListener>(IInPocketListener.class);
     private final SensorManager mSensorManager;
     private final Sensor mProximity;
-    private int mState = STATE_NONE;
+    private final Sensor mLight;
+    private final Handler mHandler;
+    private final PocketStateMachine mStateMachine;
+    private TraceWriter mRecorder;
     private boolean mIsListenerRegistered = false;
 
     public PocketDetector(SensorManager sensorManager) {
+	this(sensorManager, null);
+    }
+
+    /**
+     * Creates detector which receives sensor events on the handler's thread (main thread if handler is null)
+     */
+    public PocketDetector(SensorManager sensorManager, Handler handler) {
 	mSensorManager = sensorManager;
+	mHandler = (handler != null) ? handler : new Handler(Looper.getMainLooper());
 	mProximity = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+	mLight = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+	// binary sensors report either 0 or the maximum range, which may be closer than the thresholds
+	final float range = mProximity.getMaximumRange();
+	final float far = (range > 0) ? Math.min(DISTANCE_THRESHOLD_FAR, range * 0.9f) : DISTANCE_THRESHOLD_FAR;
+	final float near = Math.min(DISTANCE_THRESHOLD, far);
+	mStateMachine = new PocketStateMachine(mStateHost, near, far, IN_DEBOUNCE, OUT_DEBOUNCE, MAX_LATENCY, mLight != null);
     }
 
     /********************* Public methods ******************************/
@@ -53,7 +84,7 @@ public class PocketDetector implements SensorEventListener {
      */
     public void start() {
 	if (!mIsListenerRegistered) {
-	    mSensorManager.registerListener(this, mProximity, SensorManager.SENSOR_DELAY_NORMAL);
+	    mSensorManager.registerListener(this, mProximity, SensorManager.SENSOR_DELAY_NORMAL, mHandler);
 	    mIsListenerRegistered = true;
 	}
     }
@@ -65,9 +96,18 @@ public class PocketDetector implements SensorEventListener {
 	if (mIsListenerRegistered) {
 	    mSensorManager.unregisterListener(this);
 	    mIsListenerRegistered = false;
+	    mStateMachine.reset();
 	}
     }
 
+    /**
+     * Number of leg detector starts and stops saved by debouncing the proximity sensor and its hysteresis band.
+     * Kept across stop() and start()
+     */
+    public int getAvoidedCount() {
+	return mStateMachine.getAvoidedCount();
+    }
+
     /**
      * Call this method when you are done with this instance
      */ 
@@ -83,6 +123,20 @@ public class PocketDetector implements SensorEventListener {
 	mListeners.add(listener);
     }
 
+    /**
+     * Unregisters event listener
+     */
+    public void unregisterListener(IInPocketListener listener) {
+	mListeners.remove(listener);
+    }
+
+    /**
+     * Sets writer which receives raw proximity samples, null stops recording. Call it on the sensor thread only
+     */
+    public void setRecorder(TraceWriter recorder) {
+	mRecorder = recorder;
+    }
+
     /********************* SensorEventListener *************************/
 
     @Override
@@ -92,31 +146,84 @@ public class PocketDetector implements SensorEventListener {
 
     @Override
     public final void onSensorChanged(SensorEvent event) {
-	float distance = event.values[0];
-	int state = (distance < DISTANCE_THRESHOLD) ? STATE_IN_POCKET : STATE_OUT_OF_POCKET;
-	if (state != mState) {
-	    mState = state;
-	    notifyListeners();
+	final int type = event.sensor.getType();
+	final float value = event.values[0];
+	if (mRecorder != null) {
+	    record(type, event.timestamp, value);
+	}
+	if (type == Sensor.TYPE_PROXIMITY) {
+	    mStateMachine.onDistance(SystemClock.elapsedRealtime(), value);
+	} else if (type == Sensor.TYPE_LIGHT) {
+	    mStateMachine.onLight(SystemClock.elapsedRealtime(), value);
 	}
     }
 
     /********************* Private methods *****************************/
 
+    /**
+     * Writes sample to the trace, trace sensor types are the same as Sensor.TYPE_*. Recording is stopped on error
+     */
+    private void record(int sensorType, long timestamp, float value) {
+	try {
+	    mRecorder.write(sensorType, timestamp, value, 0, 0);
+	} catch (IOException e) {
+	    Log.e(LOG_TAG, "Failed to record sample of sensor " + sensorType, e);
+	    mRecorder = null;
+	}
+    }
+
     /**
      * Calls registered event listeners
      */
-    private void notifyListeners() {
-	for (IInPocketListener listener : mListeners) {
-	    switch (mState) {
+    private void notifyListeners(int state) {
+	LOG.i(state == STATE_IN_POCKET ? "in pocket" : "out of pocket");
+	for (IInPocketListener listener : mListeners.snapshot()) {
+	    switch (state) {
 	    case STATE_IN_POCKET:
 		listener.phoneInPocket();
-		Log.i(LOG_TAG, "in pocket");
 		break;
 	    case STATE_OUT_OF_POCKET:
 		listener.phoneOutOfPocket();
-		Log.i(LOG_TAG, "out of pocket");
 		break;
 	    }
 	}
     }
+
+    private final Runnable mCheck = new Runnable() {
+	@Override
+	public void run() {
+	    mStateMachine.onCheck(SystemClock.elapsedRealtime());
+	}
+    };
+
+    /**
+     * Performs PocketStateMachine's requests, called on the sensor thread
+     */
+    private final PocketStateMachine.IHost mStateHost = new PocketStateMachine.IHost() {
+	@Override
+	public void onPocketStateChanged(int state) {
+	    notifyListeners(state);
+	}
+
+	@Override
+	public void scheduleCheck(long delayMillis) {
+	    mHandler.removeCallbacks(mCheck);
+	    mHandler.postDelayed(mCheck, delayMillis);
+	}
+
+	@Override
+	public void cancelCheck() {
+	    mHandler.removeCallbacks(mCheck);
+	}
+
+	@Override
+	public void startLightSensor() {
+	    mSensorManager.registerListener(PocketDetector.this, mLight, SensorManager.SENSOR_DELAY_NORMAL, mHandler);
+	}
+
+	@Override
+	public void stopLightSensor() {
+	    mSensorManager.unregisterListener(PocketDetector.this, mLight);
+	}
+    };
 }
@@ -1,35 +1,60 @@
 package com.tartakynov.robotnoise;
 
-import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.tartakynov.robotnoise.util.ListenerRegistry;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 
 /**
  * @author Artem Tartakynov
- * Current application preferences
+ * Current application preferences. Values are read once and kept in memory, so getters never touch SharedPreferences.
+ * Setters update the memory, frequent changes like the angle are written to disk together a bit later
+ * by apply(), rare ones at once. Listeners are notified on the main thread about the keys whose values have changed.
+ * Used by the UI process only, RobotService keeps its values in RobotPreferences
  */
-public class Preferences implements OnSharedPreferenceChangeListener {
+public class Preferences {
 
     public interface OnPreferenceChangeListener {
 
-	void onPreferenceChanged(Preferences pref);
+	void onPreferenceChanged(Preferences pref, String key);
 
     }
 
-    private static final int DEFAULT_ANGLE = 180;	
+    public static final String KEY_ANGLE		= "angle";
+    public static final String KEY_FEEDBACK_REQUESTED	= "feedbackRequested";
+
+    private static final int DEFAULT_ANGLE = 180;
+    private static final long FLUSH_DELAY = 1000; // ms, changes within it are written to disk together
 
-    private static volatile Preferences sInstance = null;	
+    private static volatile Preferences sInstance = null;
 
     private final SharedPreferences mPref;
 
-    private final Editor mEdit;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Object mSync = new Object();
+
+    private final HashSet<String> mUnsaved = new HashSet<String>(); // guarded by mSync
+
+    private final HashSet<String> mChanged = new HashSet<String>(); // guarded by mSync, not dispatched yet
 
-    private final ArrayList<OnPreferenceChangeListener> mOnPrefChangeListeners = 
-	    new ArrayList<OnPreferenceChangeListener>();
+    private boolean mIsFlushScheduled = false; // guarded by mSync
+
+    private boolean mIsDispatchScheduled = false; // guarded by mSync
+
+    private volatile int mAngle;
+
+    private volatile boolean mFeedbackRequested;
+
+    private final ListenerRegistry<OnPreferenceChangeListener> mOnPrefChangeListeners =
+	    new ListenerRegistry<OnPreferenceChangeListener>(OnPreferenceChangeListener.class);
 
     public static Preferences Open(Context context) {
 	if (sInstance == null) {
@@ -42,10 +67,17 @@ public class Preferences implements OnSharedPreferenceChangeListener {
 	return sInstance;
     }
 
-    @Override
-    public void onSharedPreferenceChanged(SharedPreferences pref, String key) {
-	for (OnPreferenceChangeListener listener : this.mOnPrefChangeListeners) {
-	    listener.onPreferenceChanged(this);
+    /**
+     * Starts reading preferences on a background thread, Open() called meanwhile waits for it instead of reading them again
+     */
+    public static void preload(final Context context) {
+	if (sInstance == null) {
+	    new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    Open(context);
+		}
+	    }, "Preferences").start();
 	}
     }
 
@@ -53,29 +85,123 @@ public class Preferences implements OnSharedPreferenceChangeListener {
 	this.mOnPrefChangeListeners.add(listener);
     }
 
+    public void unregisterPreferenceChangeListener(OnPreferenceChangeListener listener) {
+	this.mOnPrefChangeListeners.remove(listener);
+    }
+
     private Preferences(Context context) {
 	mPref = PreferenceManager.getDefaultSharedPreferences(context);
-	mEdit = mPref.edit();
-	mPref.registerOnSharedPreferenceChangeListener(this);
-    }	
+	mAngle = mPref.getInt(KEY_ANGLE, DEFAULT_ANGLE);
+	mFeedbackRequested = mPref.getBoolean(KEY_FEEDBACK_REQUESTED, false);
+    }
+
+    /**
+     * Writes the pending changes now, e.g. when the activity goes to background
+     */
+    public void flush() {
+	synchronized (mSync) {
+	    if (mIsFlushScheduled) {
+		mHandler.removeCallbacks(mFlush);
+		mIsFlushScheduled = false;
+	    }
+	    if (mUnsaved.isEmpty()) {
+		return;
+	    }
+	    final Editor edit = mPref.edit();
+	    for (String key : mUnsaved) {
+		write(edit, key);
+	    }
+	    mUnsaved.clear();
+	    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+		edit.apply();
+	    } else {
+		edit.commit();
+	    }
+	}
+    }
 
     public int getAngle() {
-	return mPref.getInt("angle", DEFAULT_ANGLE);
+	return mAngle;
     }
 
     public void setAngle(int angle) {
 	if (angle >= 0) {
-	    mEdit.putInt("angle", angle);		
-	    mEdit.commit();				
+	    synchronized (mSync) {
+		if (angle != mAngle) {
+		    mAngle = angle;
+		    onChanged(KEY_ANGLE, false);
+		}
+	    }
 	}
     }
 
     public boolean isFeedbackRequested() {
-	return mPref.getBoolean("feedbackRequested", false);
+	return mFeedbackRequested;
     }
 
     public void setFeedbackRequested() {
-	mEdit.putBoolean("feedbackRequested", true);		
-	mEdit.commit();					
+	synchronized (mSync) {
+	    if (!mFeedbackRequested) {
+		mFeedbackRequested = true;
+		onChanged(KEY_FEEDBACK_REQUESTED, true);
+	    }
+	}
+    }
+
+    /**
+     * Schedules writing and notification of the changed key, must be called under mSync
+     */
+    private void onChanged(String key, boolean now) {
+	mUnsaved.add(key);
+	mChanged.add(key);
+	if (!mIsDispatchScheduled) {
+	    mIsDispatchScheduled = true;
+	    mHandler.post(mDispatch);
+	}
+	if (now) {
+	    flush();
+	} else if (!mIsFlushScheduled) {
+	    mIsFlushScheduled = true;
+	    mHandler.postDelayed(mFlush, FLUSH_DELAY);
+	}
     }
+
+    /**
+     * Puts the cached value of the key into editor
+     */
+    private void write(Editor edit, String key) {
+	if (KEY_ANGLE.equals(key)) {
+	    edit.putInt(KEY_ANGLE, mAngle);
+	} else if (KEY_FEEDBACK_REQUESTED.equals(key)) {
+	    edit.putBoolean(KEY_FEEDBACK_REQUESTED, mFeedbackRequested);
+	}
+    }
+
+    private final Runnable mFlush = new Runnable() {
+	@Override
+	public void run() {
+	    flush();
+	}
+    };
+
+    /**
+     * Notifies listeners about every key changed since the previous dispatch, a key is reported once
+     * however many times it has been set in between
+     */
+    private final Runnable mDispatch = new Runnable() {
+	@Override
+	public void run() {
+	    final String[] keys;
+	    synchronized (mSync) {
+		keys = mChanged.toArray(new String[mChanged.size()]);
+		mChanged.clear();
+		mIsDispatchScheduled = false;
+	    }
+	    for (String key : keys) {
+		for (OnPreferenceChangeListener listener : mOnPrefChangeListeners.snapshot()) {
+		    listener.onPreferenceChanged(Preferences.this, key);
+		}
+	    }
+	}
+    };
 }
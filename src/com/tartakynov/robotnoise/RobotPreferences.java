@@ -0,0 +1,101 @@
+package com.tartakynov.robotnoise;
+
+import com.tartakynov.robotnoise.audio.ClipCache;
+import com.tartakynov.robotnoise.leg.LegParameters;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.os.Build;
+
+/**
+ * @author Artem Tartakynov
+ * Preferences of RobotService, kept in their own file which only the service process reads and writes.
+ * SharedPreferences aren't shared between processes: each one keeps its copy in memory and writes the whole
+ * copy back, so a file used by both the UI and the service would lose the changes of either. See Preferences for the UI
+ */
+public class RobotPreferences {
+    private static final String FILE_NAME = "robot";
+
+    private static volatile RobotPreferences sInstance = null;
+
+    private final SharedPreferences mPref;
+
+    private volatile LegParameters mLegParameters;
+
+    public static RobotPreferences Open(Context context) {
+	if (sInstance == null) {
+	    synchronized (RobotPreferences.class) {
+		if (sInstance == null) {
+		    sInstance = new RobotPreferences(context);
+		}
+	    }
+	}
+	return sInstance;
+    }
+
+    private RobotPreferences(Context context) {
+	mPref = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
+	mLegParameters = readLegParameters();
+    }
+
+    /**
+     * Detection parameters found by calibration, the defaults if the detector has never been calibrated
+     */
+    public LegParameters getLegParameters() {
+	return mLegParameters;
+    }
+
+    /**
+     * Keeps parameters and writes them at once, they change rarely
+     */
+    public void setLegParameters(LegParameters parameters) {
+	if (!parameters.isValid()) {
+	    return;
+	}
+	mLegParameters = parameters;
+	final Editor edit = mPref.edit();
+	edit.putFloat("legAmplitude", parameters.amplitudeThreshold);
+	edit.putInt("legInactivity", parameters.inactivityThreshold);
+	edit.putFloat("legQ", parameters.q);
+	edit.putFloat("legR", parameters.r);
+	save(edit);
+    }
+
+    /**
+     * Memory budget of decoded clips in bytes
+     */
+    public int getClipCacheBytes() {
+	return mPref.getInt("clipCacheBytes", ClipCache.DEFAULT_BUDGET_BYTES);
+    }
+
+    public void setClipCacheBytes(int bytes) {
+	save(mPref.edit().putInt("clipCacheBytes", bytes));
+    }
+
+    /**
+     * Directory of the selected sound pack, null for the built-in sounds
+     */
+    public String getSoundPackDirectory() {
+	return mPref.getString("soundPackDirectory", null);
+    }
+
+    public void setSoundPackDirectory(String directory) {
+	save(directory != null ? mPref.edit().putString("soundPackDirectory", directory) : mPref.edit().remove("soundPackDirectory"));
+    }
+
+    private static void save(Editor edit) {
+	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+	    edit.apply();
+	} else {
+	    edit.commit();
+	}
+    }
+
+    private LegParameters readLegParameters() {
+	final LegParameters d = LegParameters.DEFAULT;
+	final LegParameters parameters = new LegParameters(mPref.getFloat("legAmplitude", d.amplitudeThreshold),
+		mPref.getInt("legInactivity", d.inactivityThreshold), mPref.getFloat("legQ", d.q), mPref.getFloat("legR", d.r));
+	return parameters.isValid() ? parameters : d;
+    }
+}
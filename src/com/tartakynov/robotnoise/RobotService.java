@@ -1,8 +1,28 @@
 package com.tartakynov.robotnoise;
 
+import java.io.File;
+import java.io.IOException;
+
+import com.tartakynov.robotnoise.MotionWakeMonitor.IMotionWakeListener;
 import com.tartakynov.robotnoise.PocketDetector.IInPocketListener;
+import com.tartakynov.robotnoise.audio.ClipCache;
+import com.tartakynov.robotnoise.audio.IPlaybackEngine;
+import com.tartakynov.robotnoise.audio.MediaPlayerEngine;
+import com.tartakynov.robotnoise.audio.MixerEngine;
+import com.tartakynov.robotnoise.audio.SoundPack;
+import com.tartakynov.robotnoise.audio.SoundPoolEngine;
+import com.tartakynov.robotnoise.leg.IGaitListener;
+import com.tartakynov.robotnoise.leg.ILegMovementListener;
+import com.tartakynov.robotnoise.leg.LegCalibrator;
 import com.tartakynov.robotnoise.leg.LegMovementDetector;
-import com.tartakynov.robotnoise.leg.LegMovementDetector.ILegMovementListener;
+import com.tartakynov.robotnoise.leg.PredictivePlaybackScheduler;
+import com.tartakynov.robotnoise.leg.WalkRecording;
+import com.tartakynov.robotnoise.power.WalkingSession;
+import com.tartakynov.robotnoise.trace.TraceWriter;
+import com.tartakynov.robotnoise.util.EventRing;
+import com.tartakynov.robotnoise.util.LatencyHistogram;
+import com.tartakynov.robotnoise.util.LatencyTracker;
+import com.tartakynov.robotnoise.util.StartupTrace;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -10,53 +30,160 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.SensorManager;
-import android.os.Binder;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
 
 /**
  * @author 
  *
  */
-public class RobotService extends Service {	
-    private static final int NOTIFICATION 	= R.string.robot_service_label;
-    private static final String WAKELOCK 	= "WL_TAG";    
+public class RobotService extends Service {
+    /**
+     * Starts or stops recording of raw sensor samples, e.g.
+     * adb shell am startservice -a com.tartakynov.robotnoise.action.RECORD_TRACE --ez enabled true
+     */
+    public static final String ACTION_RECORD_TRACE	= "com.tartakynov.robotnoise.action.RECORD_TRACE";
+    public static final String EXTRA_ENABLED		= "enabled";
+    /**
+     * Records a walk and tunes the detector by it, e.g.
+     * adb shell am startservice -a com.tartakynov.robotnoise.action.CALIBRATE
+     */
+    public static final String ACTION_CALIBRATE		= "com.tartakynov.robotnoise.action.CALIBRATE";
+    /**
+     * Switches to the sound pack in a directory, without the extra back to the built-in sounds, e.g.
+     * adb shell am startservice -a com.tartakynov.robotnoise.action.SET_SOUND_PACK --es directory /sdcard/robot
+     */
+    public static final String ACTION_SET_SOUND_PACK	= "com.tartakynov.robotnoise.action.SET_SOUND_PACK";
+    public static final String EXTRA_DIRECTORY		= "directory";
+    /**
+     * Sets the memory budget of decoded clips, e.g.
+     * adb shell am startservice -a com.tartakynov.robotnoise.action.SET_CLIP_BUDGET --ei bytes 1048576
+     */
+    public static final String ACTION_SET_CLIP_BUDGET	= "com.tartakynov.robotnoise.action.SET_CLIP_BUDGET";
+    public static final String EXTRA_BYTES		= "bytes";
 
-    private static boolean sIsRunning = false;
+    private static final String LOG_TAG 	= "RobotService";
+    private static final int NOTIFICATION 	= R.string.robot_service_label;
+    private static final String WAKELOCK 	= "WL_TAG";
+    private static final String SENSOR_THREAD	= "RobotSensors";
+    private static final boolean LOW_LATENCY_PLAYBACK = true; // SoundPool instead of MediaPlayer
+    private static final boolean SOFTWARE_MIXER = true; // own mixer instead of SoundPool on API 16+
+    private static final boolean FUSED_DETECTION = false; // experimental, gyroscope and linear acceleration if the device has them
+    private static final boolean PREDICTIVE_PLAYBACK = true; // start sounds ahead of the detected movement
+    private static final long PLAYBACK_LEAD	= 50000000; // ns, playback startup of SoundPool
+    private static final int LEG_BLOCK_SIZE	= 16; // accelerometer samples, a delayed burst is processed at once
+    private static final int LEG_REPORT_LATENCY	= 0; // us, no hardware batching while any sound may be played reactively
+    private static final long IDLE_TIMEOUT	= 60000; // ms without leg activity before the CPU is allowed to sleep
+    private static final int CALIBRATION_SAMPLES = 500; // 30s of walking at the fast accelerometer rate
+    private static final long CALIBRATION_TIMEOUT = 120000; // ms, the walk is calibrated by what has been recorded by then
+    private static final float MIN_CALIBRATION_SCORE = 0.8f; // worse results are dropped
+    private static final String CALIBRATION_THREAD = "RobotCalibration";
+    private static final int TELEMETRY_EVENTS	= 256; // leg movements kept for the UI between polls
+    private static final String LOADER_THREAD	= "RobotClips";
+    private static final String PHASE_READY	= "ready to play"; // clips loaded, focus granted, detectors registered
 
     private final IBinder mBinder = new RobotBinder();
     private NotificationManager mNotificationManager;
-    private SensorManager mSensorManager;    
+    private SensorManager mSensorManager;
     private PowerManager mPowerManager;
     private PowerManager.WakeLock mWakeLock;
-    private LegMovementDetector mLegMovementDetector;    
+    private HandlerThread mSensorThread;
+    private Handler mSensorHandler;
+    private LegMovementDetector mLegMovementDetector;
     private LegMovementPlayer mPlayer;
+    private ClipCache mClipCache; // decoded clips kept by the mixer
     private PocketDetector mPocket;
-    private boolean mIsStarted = false;
+    private TraceWriter mRecorder; // accessed on the sensor thread only
+    private WalkRecording mCalibration; // accessed on the sensor thread only
+    private MotionWakeMonitor mMotionMonitor;
+    private PredictivePlaybackScheduler mScheduler; // accessed on the sensor thread only
+    private WalkingSession mSession; // null if there is no wake-up sensor, then the wakelock is held all the time
+    private final LatencyTracker mLatency = LatencyTracker.ENABLED ? new LatencyTracker() : null;
+    private volatile boolean mIsStarted = false;
+    private final EventRing mEvents = new EventRing(TELEMETRY_EVENTS);
+    private volatile int mForwardCount = 0; // written on the sensor thread only
+    private volatile int mBackwardCount = 0;
+    private volatile float mCadence = 0;
+    private StartupTrace mStartup;
+    private boolean mIsPlayerReady = false; // guarded by mStartup
+    private boolean mAreDetectorsStarted = false; // guarded by mStartup
+    private long mDetectedNanos = 0; // accessed on the sensor thread only, event time of the movement being handled
+
+    /**
+     * The service runs in its own process, the UI controls it through this binder.
+     * Calls come on binder threads
+     */
+    private class RobotBinder extends IRobotService.Stub {
+	@Override
+	public void start() {
+	    RobotService.this.start();
+	}
 
-    public class RobotBinder extends Binder {
-	RobotService getService() {
-	    return RobotService.this;
+	@Override
+	public void stop() {
+	    RobotService.this.stop();
+	}
+
+	@Override
+	public boolean isStarted() {
+	    return RobotService.this.isStarted();
+	}
+
+	@Override
+	public void setVolume(float volume) {
+	    RobotService.this.setVolume(volume);
+	}
+
+	@Override
+	public RobotTelemetry getTelemetry(long sinceSequence) {
+	    return collectTelemetry(sinceSequence);
 	}
     }
 
     /**
-     * Used for receiving notifications from the LegMovementDetector when leg state have changed
+     * Used for receiving notifications from the LegMovementDetector when leg state have changed.
+     * Called on the sensor thread, so the sound is started without a round trip to the main thread
      */
     private ILegMovementListener mLegMovementListener = new ILegMovementListener() {
 	@Override
-	public void onLegActivity(int activity) {
-	    if (!mIsStarted) return;
-	    switch (activity) {
-	    case LegMovementDetector.LEG_MOVEMENT_BACKWARD:
-		mPlayer.playBackward();
-		break;
-	    case LegMovementDetector.LEG_MOVEMENT_FORWARD:
-		mPlayer.playForward();
-		break;
-	    }									
-	}   	
+	public void onLegActivity(int activity, long timestampNanos) {
+	    final long eventNanos = mLegMovementDetector.toSystemNanos(timestampNanos);
+	    if (LatencyTracker.ENABLED) {
+		mLatency.recordSince(LatencyTracker.STAGE_DETECTION, eventNanos);
+	    }
+	    final long now = SystemClock.elapsedRealtime();
+	    if (activity == LegMovementDetector.LEG_MOVEMENT_FORWARD) {
+		mForwardCount++;
+		mEvents.add(now, activity);
+	    } else if (activity == LegMovementDetector.LEG_MOVEMENT_BACKWARD) {
+		mBackwardCount++;
+		mEvents.add(now, activity);
+	    }
+	    if (mSession != null) {
+		mSession.onLegActivity(now);
+	    }
+	    if (mCalibration != null && mCalibration.isFull()) {
+		mFinishCalibration.run();
+	    }
+	    if (!mIsStarted || !mLegMovementDetector.isStarted()) return; // flushed by stopDetector(), the phone is out by now
+	    mDetectedNanos = eventNanos; // play() called meanwhile is the reaction to this movement
+	    if (PREDICTIVE_PLAYBACK) {
+		mScheduler.onLegActivity(activity, eventNanos, System.nanoTime());
+	    } else {
+		play(activity);
+	    }
+	    mDetectedNanos = 0;
+	}
     };
 
     /********************* Service *************************************/
@@ -68,56 +195,103 @@ public class RobotService extends Service {
 
     @Override
     public void onCreate() {
-	sIsRunning = true;
-
+	mStartup = new StartupTrace(LOG_TAG);
 	// initialize class fields
-	mNotificationManager = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);		
+	mNotificationManager = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
 	mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 	mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-	mPlayer = new LegMovementPlayer(getApplicationContext());
+	final RobotPreferences preferences = RobotPreferences.Open(getApplicationContext());
+	mClipCache = new ClipCache(preferences.getClipCacheBytes());
+	mPlayer = new LegMovementPlayer(getApplicationContext(), createPlaybackEngine());
+	mPlayer.setLatencyTracker(mLatency);
+	mPlayer.setListener(mPlayerListener);
+	if (preferences.getSoundPackDirectory() != null) {
+	    mPlayer.setSoundPack(SoundPack.fromDirectory(new File(preferences.getSoundPackDirectory()), LegMovementPlayer.SOUND_NAMES));
+	}
+	// decoding the clips is the slowest part of startup, it runs while the sensors are being set up
+	startLoadingClips();
+	mPlayer.requestFocus();
 
 	// initialize wakelock
 	mWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKELOCK);
-	mWakeLock.acquire();    	
+	mWakeLock.setReferenceCounted(false);
+
+	// initialize sensor thread, all sensor events and detectors' state changes are handled there
+	mSensorThread = new HandlerThread(SENSOR_THREAD, Process.THREAD_PRIORITY_FOREGROUND);
+	mSensorThread.start();
+	mSensorHandler = new Handler(mSensorThread.getLooper());
+
+	// hold the wakelock only while walking if the device can wake us up, otherwise all the time
+	mMotionMonitor = MotionWakeMonitor.create(mSensorManager, mPowerManager, mSensorHandler, mMotionWakeListener);
+	if (mMotionMonitor != null) {
+	    mSession = new WalkingSession(mSessionHost, IDLE_TIMEOUT);
+	} else {
+	    mWakeLock.acquire();
+	}
 
 	// initialize movement detector
-	mLegMovementDetector = new LegMovementDetector(mSensorManager);
+	mLegMovementDetector = new LegMovementDetector(mSensorManager, mSensorHandler, LEG_BLOCK_SIZE, LEG_REPORT_LATENCY);
 	mLegMovementDetector.addListener(mLegMovementListener);
+	mLegMovementDetector.setParameters(preferences.getLegParameters());
+	if (FUSED_DETECTION) {
+	    mLegMovementDetector.setFusion(true);
+	}
+	if (PREDICTIVE_PLAYBACK) {
+	    mScheduler = new PredictivePlaybackScheduler(mSchedulerHost, PLAYBACK_LEAD,
+		    PredictivePlaybackScheduler.DEFAULT_TOLERANCE_NANOS);
+	}
+	mLegMovementDetector.addGaitListener(mGaitListener);
+	mLegMovementDetector.setLatencyTracker(mLatency);
 
 	// initialize pocket detector
-	mPocket = new PocketDetector((SensorManager) getSystemService(SENSOR_SERVICE));
+	mPocket = new PocketDetector(mSensorManager, mSensorHandler);
 	mPocket.registerListener(mPocketDetectorListener);
-	mPocket.start();	
+	mSensorHandler.post(mStartDetectors);
 
 	showNotification(NOTIFICATION);
+	mStartup.mark("created");
     }
 
     @Override
     public void onDestroy() {
-	sIsRunning = false;
-	mLegMovementDetector.stopDetector();
-	mNotificationManager.cancel(NOTIFICATION);    		
-	mPocket.release();
-	mPlayer.release(); 
-	mWakeLock.release();
-    }        
+	mSensorHandler.post(mReleaseDetectors);
+	mNotificationManager.cancel(NOTIFICATION);
+	mPlayer.release();
+	if (mSession == null) {
+	    mWakeLock.release();
+	}
+    }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+	if (intent != null && ACTION_RECORD_TRACE.equals(intent.getAction())) {
+	    if (intent.getBooleanExtra(EXTRA_ENABLED, true)) {
+		startRecording();
+	    } else {
+		stopRecording();
+	    }
+	} else if (intent != null && ACTION_CALIBRATE.equals(intent.getAction())) {
+	    startCalibration();
+	} else if (intent != null && ACTION_SET_SOUND_PACK.equals(intent.getAction())) {
+	    final String directory = intent.getStringExtra(EXTRA_DIRECTORY);
+	    setSoundPack(directory != null ? new File(directory) : null);
+	} else if (intent != null && ACTION_SET_CLIP_BUDGET.equals(intent.getAction())) {
+	    setClipCacheBudget(intent.getIntExtra(EXTRA_BYTES, ClipCache.DEFAULT_BUDGET_BYTES));
+	}
 	return START_STICKY;
     }
 
     /********************* Public methods*******************************/
 
     public void start() {
-	mPocket.start();
-	mIsStarted = true;	
-    }	
+	mPlayer.init(); // takes the audio focus back if it was lost
+	mSensorHandler.post(mStartDetectors);
+	mIsStarted = true;
+    }
 
     public void stop() {
-	mPocket.stop();			
-	mLegMovementDetector.stopDetector();
-	mIsStarted = false;	
+	mSensorHandler.post(mStopDetectors);
+	mIsStarted = false;
     }
 
     public boolean isStarted() {
@@ -127,11 +301,195 @@ public class RobotService extends Service {
     public void setVolume(float volume) {
 	if (mPlayer != null) {
 	    mPlayer.setVolume(volume);
-	}	
+	}
+    }
+
+    /**
+     * Plays clips from the directory, see SoundPack.fromDirectory(). Null goes back to the built-in sounds.
+     * The choice is kept across restarts, a directory without clips for every movement is ignored
+     */
+    public void setSoundPack(File directory) {
+	final SoundPack pack = directory != null ? SoundPack.fromDirectory(directory, LegMovementPlayer.SOUND_NAMES)
+		: LegMovementPlayer.createDefaultPack();
+	if (!pack.isComplete()) {
+	    Log.w(LOG_TAG, "Incomplete sound pack " + directory);
+	    return;
+	}
+	mPlayer.setSoundPack(pack);
+	RobotPreferences.Open(getApplicationContext()).setSoundPackDirectory(directory != null ? directory.getAbsolutePath() : null);
+    }
+
+    /**
+     * Sets the memory budget of decoded clips in bytes, it's kept across restarts.
+     * Clips rejected as too big by the old budget are tried again when a sound pack is loaded
+     */
+    public void setClipCacheBudget(int bytes) {
+	if (bytes > 0) {
+	    mClipCache.setBudgetBytes(bytes);
+	    RobotPreferences.Open(getApplicationContext()).setClipCacheBytes(bytes);
+	}
+    }
+
+    /**
+     * Starts recording of accelerometer and proximity samples into a new trace file
+     */
+    public void startRecording() {
+	mSensorHandler.post(mStartRecording);
+    }
+
+    /**
+     * Stops recording and closes the trace file
+     */
+    public void stopRecording() {
+	mSensorHandler.post(mStopRecording);
+    }
+
+    /**
+     * Records the next 30 seconds of walking and tunes the detector by them in background.
+     * The found parameters are saved to RobotPreferences and used from then on
+     */
+    public void startCalibration() {
+	mSensorHandler.post(mStartCalibration);
     }
 
-    public static boolean isRunning() {
-	return sIsRunning;
+    /******************* Working with sensor thread *******************/
+
+    private final Runnable mStartDetectors = new Runnable() {
+	@Override
+	public void run() {
+	    mPocket.start();
+	    if (mSession != null) {
+		mSession.start(SystemClock.elapsedRealtime());
+	    }
+	    mStartup.mark("detectors");
+	    synchronized (mStartup) {
+		mAreDetectorsStarted = true;
+		checkReady();
+	    }
+	}
+    };
+
+    private final Runnable mStopDetectors = new Runnable() {
+	@Override
+	public void run() {
+	    mPocket.stop();
+	    Log.i(LOG_TAG, "Pocket debouncing saved " + mPocket.getAvoidedCount() + " detector restarts");
+	    if (mSession != null) {
+		mSession.stop();
+	    }
+	    mLegMovementDetector.stopDetector();
+	    if (mScheduler != null) {
+		mScheduler.reset();
+	    }
+	}
+    };
+
+    private final Runnable mReleaseDetectors = new Runnable() {
+	@Override
+	public void run() {
+	    mStopRecording.run();
+	    mCalibration = null;
+	    if (mSession != null) {
+		mSession.stop();
+	    }
+	    mLegMovementDetector.stopDetector();
+	    mPocket.release();
+	    Looper.myLooper().quit();
+	}
+    };
+
+    private final Runnable mStartRecording = new Runnable() {
+	@Override
+	public void run() {
+	    if (mRecorder != null) return;
+	    File dir = getExternalFilesDir(null);
+	    if (dir == null) {
+		dir = getFilesDir();
+	    }
+	    File file = new File(dir, "robot-" + System.currentTimeMillis() + ".trace");
+	    try {
+		mRecorder = new TraceWriter(file);
+		mLegMovementDetector.setRecorder(mRecorder);
+		mPocket.setRecorder(mRecorder);
+		Log.i(LOG_TAG, "Recording trace to " + file);
+	    } catch (IOException e) {
+		Log.e(LOG_TAG, "Failed to start trace recording", e);
+	    }
+	}
+    };
+
+    private final Runnable mStopRecording = new Runnable() {
+	@Override
+	public void run() {
+	    if (mRecorder == null) return;
+	    mLegMovementDetector.setRecorder(null);
+	    mPocket.setRecorder(null);
+	    try {
+		mRecorder.close();
+		Log.i(LOG_TAG, "Recorded " + mRecorder.getRecordCount() + " samples");
+	    } catch (IOException e) {
+		Log.e(LOG_TAG, "Failed to close trace", e);
+	    }
+	    mRecorder = null;
+	}
+    };
+
+    /******************* Working with calibration *********************/
+
+    private final Runnable mStartCalibration = new Runnable() {
+	@Override
+	public void run() {
+	    if (mCalibration != null) return;
+	    mCalibration = new WalkRecording(CALIBRATION_SAMPLES);
+	    mLegMovementDetector.setCalibrationRecording(mCalibration);
+	    mLegMovementDetector.setAdaptiveRate(false);
+	    mSensorHandler.postDelayed(mFinishCalibration, CALIBRATION_TIMEOUT);
+	    Log.i(LOG_TAG, "Recording calibration walk");
+	}
+    };
+
+    private final Runnable mFinishCalibration = new Runnable() {
+	@Override
+	public void run() {
+	    if (mCalibration == null) return;
+	    mSensorHandler.removeCallbacks(mFinishCalibration);
+	    mLegMovementDetector.setCalibrationRecording(null);
+	    mLegMovementDetector.setAdaptiveRate(true);
+	    calibrate(mCalibration);
+	    mCalibration = null;
+	}
+    };
+
+    /**
+     * Searches the parameters on a background thread, the detector keeps working with the old ones meanwhile
+     */
+    private void calibrate(final WalkRecording recording) {
+	final Context context = getApplicationContext();
+	final Thread thread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		final LegCalibrator.Result result;
+		try {
+		    result = new LegCalibrator().calibrate(recording);
+		} catch (InterruptedException e) {
+		    return;
+		}
+		if (result == null || result.score < MIN_CALIBRATION_SCORE) {
+		    Log.w(LOG_TAG, "Calibration failed, " + (result == null ? "no walk recorded" : "score " + result.score));
+		    return;
+		}
+		Log.i(LOG_TAG, "Calibrated in " + result.elapsedNanos / 1000000 + " ms, score " + result.score + ": " + result.parameters);
+		RobotPreferences.Open(context).setLegParameters(result.parameters);
+		mSensorHandler.post(new Runnable() {
+		    @Override
+		    public void run() {
+			mLegMovementDetector.setParameters(result.parameters);
+		    }
+		});
+	    }
+	}, CALIBRATION_THREAD);
+	thread.start();
     }
 
     /******************* Working with Pocket detector *****************/
@@ -142,7 +500,9 @@ public class RobotService extends Service {
 	 * Called when you put the phone in pocket
 	 */
 	public void phoneInPocket() {
-	    if (mLegMovementDetector != null) { // just to be on safe side
+	    if (mSession != null) {
+		mSession.setInPocket(true, SystemClock.elapsedRealtime());
+	    } else if (mLegMovementDetector != null) { // just to be on safe side
 		mLegMovementDetector.startDetector();
 	    }
 	}
@@ -151,14 +511,235 @@ public class RobotService extends Service {
 	 * Called when you take the phone out of pocket
 	 */
 	public void phoneOutOfPocket() {
-	    if (mLegMovementDetector != null) {
-		mLegMovementDetector.stopDetector();			
+	    if (mSession != null) {
+		mSession.setInPocket(false, SystemClock.elapsedRealtime());
+	    } else if (mLegMovementDetector != null) {
+		mLegMovementDetector.stopDetector();
+	    }
+	    if (mScheduler != null) {
+		mScheduler.reset(); // cancels a predicted step, the gait is stale by the next time in pocket
+	    }
+	}
+    };
+
+    /******************* Working with predictive playback *************/
+
+    /**
+     * Keeps the cadence for telemetry. Forgets the gait when the user stops walking, so the next step isn't predicted from the old one
+     */
+    private final IGaitListener mGaitListener = new IGaitListener() {
+	@Override
+	public void onGaitChanged(float cadence, long stridePeriodNanos, float regularity, long timestampNanos) {
+	    mCadence = cadence;
+	    if (cadence == 0 && mScheduler != null) {
+		mScheduler.reset();
 	    }
 	}
     };
 
+    private final Runnable mPredictedPlay = new Runnable() {
+	@Override
+	public void run() {
+	    mScheduler.onScheduled(System.nanoTime());
+	}
+    };
+
+    /**
+     * Performs PredictivePlaybackScheduler's requests, called on the sensor thread
+     */
+    private final PredictivePlaybackScheduler.IHost mSchedulerHost = new PredictivePlaybackScheduler.IHost() {
+	@Override
+	public void play(int activity) {
+	    RobotService.this.play(activity);
+	}
+
+	@Override
+	public void schedule(long delayNanos) {
+	    mSensorHandler.removeCallbacks(mPredictedPlay);
+	    mSensorHandler.postDelayed(mPredictedPlay, delayNanos / 1000000);
+	}
+
+	@Override
+	public void cancel() {
+	    mSensorHandler.removeCallbacks(mPredictedPlay);
+	}
+    };
+
+    /******************* Working with audio player ********************/
+
+    private final LegMovementPlayer.IListener mPlayerListener = new LegMovementPlayer.IListener() {
+	@Override
+	public void onReady() {
+	    synchronized (mStartup) {
+		mIsPlayerReady = true;
+		checkReady();
+	    }
+	}
+    };
+
+    /******************* Working with power management ****************/
+
+    private final IMotionWakeListener mMotionWakeListener = new IMotionWakeListener() {
+	@Override
+	public void onMotionWakeUp() {
+	    mSession.onWakeUp(SystemClock.elapsedRealtime());
+	}
+    };
+
+    private final Runnable mSessionCheck = new Runnable() {
+	@Override
+	public void run() {
+	    mSession.onCheck(SystemClock.elapsedRealtime());
+	}
+    };
+
+    /**
+     * Performs WalkingSession's requests, called on the sensor thread
+     */
+    private final WalkingSession.IHost mSessionHost = new WalkingSession.IHost() {
+	@Override
+	public void acquireWakeLock() {
+	    mWakeLock.acquire();
+	}
+
+	@Override
+	public void releaseWakeLock() {
+	    mWakeLock.release();
+	    mSensorHandler.removeCallbacks(mSessionCheck);
+	}
+
+	@Override
+	public void startDetector() {
+	    mLegMovementDetector.startDetector();
+	}
+
+	@Override
+	public void stopDetector() {
+	    mLegMovementDetector.stopDetector();
+	}
+
+	@Override
+	public void armWakeUp() {
+	    mMotionMonitor.arm();
+	}
+
+	@Override
+	public void disarmWakeUp() {
+	    mMotionMonitor.disarm();
+	}
+
+	@Override
+	public void scheduleCheck(long delayMillis) {
+	    mSensorHandler.removeCallbacks(mSessionCheck);
+	    mSensorHandler.postDelayed(mSessionCheck, delayMillis);
+	}
+    };
+
     /********************* Private methods *****************************/
 
+    /**
+     * Plays the sound of given leg movement
+     */
+    private void play(int activity) {
+	boolean played = false;
+	switch (activity) {
+	case LegMovementDetector.LEG_MOVEMENT_BACKWARD:
+	    played = mPlayer.playBackward();
+	    break;
+	case LegMovementDetector.LEG_MOVEMENT_FORWARD:
+	    played = mPlayer.playForward();
+	    break;
+	}
+	// a sound played ahead of the movement by the scheduler has no detection to measure from
+	if (LatencyTracker.ENABLED && played && mDetectedNanos != 0) {
+	    mLatency.recordSince(LatencyTracker.STAGE_TOTAL_DISPATCH, mDetectedNanos);
+	}
+    }
+
+    /**
+     * Marks the end of startup once the first step would be heard, called with mStartup held
+     */
+    private void checkReady() {
+	if (mIsPlayerReady && mAreDetectorsStarted && mStartup.get(PHASE_READY) == StartupTrace.NOT_MARKED) {
+	    mStartup.mark(PHASE_READY);
+	    Log.i(LOG_TAG, mStartup.toString());
+	}
+    }
+
+    /**
+     * Loads the clips on a background thread, start() waits for them if they aren't ready by then
+     */
+    private void startLoadingClips() {
+	new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		mPlayer.load();
+		mStartup.mark("loader"); // the engine may still be loading, PHASE_READY waits for it
+	    }
+	}, LOADER_THREAD).start();
+    }
+
+    /**
+     * Collects the state for the UI in one batch, called on a binder thread.
+     * Values owned by the sensor thread are read without locking, they may be a moment old
+     */
+    private RobotTelemetry collectTelemetry(long sinceSequence) {
+	final RobotTelemetry telemetry = new RobotTelemetry();
+	telemetry.started = mIsStarted;
+	synchronized (mEvents) {
+	    final int count = mEvents.count(sinceSequence);
+	    telemetry.eventTimes = new long[count];
+	    telemetry.eventActivities = new int[count];
+	    telemetry.droppedEvents = mEvents.read(sinceSequence, telemetry.eventTimes, telemetry.eventActivities);
+	    telemetry.sequence = mEvents.getSequence();
+	}
+	telemetry.forwardCount = mForwardCount;
+	telemetry.backwardCount = mBackwardCount;
+	telemetry.cadence = mCadence;
+	if (LatencyTracker.ENABLED) {
+	    telemetry.latencyCounts = new long[LatencyTracker.STAGES];
+	    telemetry.latencyP50Nanos = new long[LatencyTracker.STAGES];
+	    telemetry.latencyP99Nanos = new long[LatencyTracker.STAGES];
+	    telemetry.latencyMaxNanos = new long[LatencyTracker.STAGES];
+	    for (int stage = 0; stage < LatencyTracker.STAGES; stage++) {
+		final LatencyHistogram.Snapshot snapshot = mLatency.snapshot(stage);
+		telemetry.latencyCounts[stage] = snapshot.count;
+		telemetry.latencyP50Nanos[stage] = snapshot.p50;
+		telemetry.latencyP99Nanos[stage] = snapshot.p99;
+		telemetry.latencyMaxNanos[stage] = snapshot.max;
+	    }
+	}
+	if (mSession != null) {
+	    telemetry.sessionState = mSession.getState();
+	    telemetry.wakeUpCount = mSession.getWakeUpCount();
+	}
+	telemetry.wakeLockHeld = mWakeLock.isHeld();
+	telemetry.pocketAvoidedCount = mPocket.getAvoidedCount();
+	telemetry.timeToFirstSoundMillis = mStartup.get(PHASE_READY);
+	final Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)); // sticky, no receiver is kept
+	if (battery != null) {
+	    final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+	    final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+	    if (level >= 0 && scale > 0) {
+		telemetry.batteryPercent = level * 100 / scale;
+	    }
+	}
+	return telemetry;
+    }
+
+    /**
+     * Creates the engine which plays the sounds of leg movement
+     */
+    private IPlaybackEngine createPlaybackEngine() {
+	if (SOFTWARE_MIXER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+	    return new MixerEngine(mClipCache);
+	}
+	if (LOW_LATENCY_PLAYBACK) {
+	    return new SoundPoolEngine();
+	}
+	return new MediaPlayerEngine();
+    }
+
     /**
      * Show a notification while this service is running.
      */
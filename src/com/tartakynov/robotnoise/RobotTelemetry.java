@@ -0,0 +1,98 @@
+package com.tartakynov.robotnoise;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * @author Artem Tartakynov
+ * State of RobotService collected in one batch, returned by IRobotService.getTelemetry(). Carries the leg movements
+ * detected since the sequence the caller has seen, so the UI polls once in a while instead of receiving every event
+ */
+public final class RobotTelemetry implements Parcelable {
+    public static final int UNKNOWN = -1;
+
+    public boolean started;
+    public long sequence; // of the newest event, pass it to the next getTelemetry()
+    public int droppedEvents; // events overwritten since the previous poll
+    public long[] eventTimes; // SystemClock.elapsedRealtime() of every detected leg movement
+    public int[] eventActivities; // LegMovementDetector.LEG_MOVEMENT_* of every detected leg movement
+    public int forwardCount;
+    public int backwardCount;
+    public float cadence; // steps per minute, 0 if the user isn't walking
+    // latencies of every LatencyTracker.STAGE_*, indexed by stage, null if the tracker is compiled out
+    public long[] latencyCounts;
+    public long[] latencyP50Nanos;
+    public long[] latencyP99Nanos;
+    public long[] latencyMaxNanos;
+    public int sessionState = UNKNOWN; // WalkingSession.STATE_*, unknown if there is no wake-up sensor
+    public int wakeUpCount;
+    public boolean wakeLockHeld;
+    public int pocketAvoidedCount; // leg detector restarts saved by the pocket debouncing and hysteresis
+    public int batteryPercent = UNKNOWN;
+    public long timeToFirstSoundMillis = UNKNOWN; // since the service was created until it's ready to play, unknown until then
+
+    public static final Parcelable.Creator<RobotTelemetry> CREATOR = new Parcelable.Creator<RobotTelemetry>() {
+	@Override
+	public RobotTelemetry createFromParcel(Parcel source) {
+	    return new RobotTelemetry(source);
+	}
+
+	@Override
+	public RobotTelemetry[] newArray(int size) {
+	    return new RobotTelemetry[size];
+	}
+    };
+
+    public RobotTelemetry() {
+    }
+
+    private RobotTelemetry(Parcel source) {
+	started = source.readInt() != 0;
+	sequence = source.readLong();
+	droppedEvents = source.readInt();
+	eventTimes = source.createLongArray();
+	eventActivities = source.createIntArray();
+	forwardCount = source.readInt();
+	backwardCount = source.readInt();
+	cadence = source.readFloat();
+	latencyCounts = source.createLongArray();
+	latencyP50Nanos = source.createLongArray();
+	latencyP99Nanos = source.createLongArray();
+	latencyMaxNanos = source.createLongArray();
+	sessionState = source.readInt();
+	wakeUpCount = source.readInt();
+	wakeLockHeld = source.readInt() != 0;
+	pocketAvoidedCount = source.readInt();
+	batteryPercent = source.readInt();
+	timeToFirstSoundMillis = source.readLong();
+    }
+
+    /********************* Parcelable **********************************/
+
+    @Override
+    public int describeContents() {
+	return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+	dest.writeInt(started ? 1 : 0);
+	dest.writeLong(sequence);
+	dest.writeInt(droppedEvents);
+	dest.writeLongArray(eventTimes);
+	dest.writeIntArray(eventActivities);
+	dest.writeInt(forwardCount);
+	dest.writeInt(backwardCount);
+	dest.writeFloat(cadence);
+	dest.writeLongArray(latencyCounts);
+	dest.writeLongArray(latencyP50Nanos);
+	dest.writeLongArray(latencyP99Nanos);
+	dest.writeLongArray(latencyMaxNanos);
+	dest.writeInt(sessionState);
+	dest.writeInt(wakeUpCount);
+	dest.writeInt(wakeLockHeld ? 1 : 0);
+	dest.writeInt(pocketAvoidedCount);
+	dest.writeInt(batteryPercent);
+	dest.writeLong(timeToFirstSoundMillis);
+    }
+}
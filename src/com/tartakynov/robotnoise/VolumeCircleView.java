@@ -1,12 +1,15 @@
 package com.tartakynov.robotnoise;
 
-import java.util.ArrayList;
+import com.tartakynov.robotnoise.util.ListenerRegistry;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader.TileMode;
 import android.util.AttributeSet;
@@ -16,6 +19,9 @@ import android.widget.ImageView;
 /**
  * @author Artem Tartakynov
  * A VolumeCircleView is an extension of ImageView and is a circle analog of SeekBar. The user can set the angle of arc by touch. 
+ * The arc geometry is computed when the size changes, a new angle invalidates only the bounds of the sector between
+ * the old and the new arc end. All touch points batched into a move event are tracked, but the view is invalidated once.
+ * The arc background is decoded on a background thread, so it doesn't delay the first frame of the activity
  */
 public class VolumeCircleView extends ImageView {
 
@@ -28,12 +34,30 @@ public class VolumeCircleView extends ImageView {
 	 * Called when angle have changed
 	 */
 	void onAngleChanged(int angle);
+
+	/**
+	 * Called on every angle change while the user drags the arc, onAngleChanged() follows when the dial is released
+	 */
+	void onAngleDragged(int angle);
     }
 
+    private static final int ARC_START = 90; // degrees, the arc starts at the bottom
+    private static final int DIRTY_MARGIN = 2; // px around the dirty sector for antialiasing
+    private static final String DECODE_THREAD = "VolumeBackground";
+
     private final RectF mOval = new RectF();	
     private final Paint mPaint = new Paint();
-    private final ArrayList<ICircleAngleChanged> mListeners = new ArrayList<ICircleAngleChanged>();
+    private final ListenerRegistry<ICircleAngleChanged> mListeners = new ListenerRegistry<ICircleAngleChanged>(ICircleAngleChanged.class);
+    private final float[] mArcX = new float[360]; // arc point of every degree, counted from ARC_START
+    private final float[] mArcY = new float[360];
+    private final RectF mSector = new RectF();
+    private final Rect mDirty = new Rect();
+    private float mCenterX;
+    private float mCenterY;
+    private float mTouchX = Float.NaN;
+    private float mTouchY = Float.NaN;
     private int mAngle = 0;
+    private boolean mIsBackgroundLoaded = false;
 
     public VolumeCircleView(Context context, AttributeSet attrs, int defStyle) {
 	super(context, attrs, defStyle);
@@ -53,8 +77,11 @@ public class VolumeCircleView extends ImageView {
     /********************* Public methods ******************************/
 
     public void setAngle(int angle) {
-	mAngle = angle;
-	invalidate();
+	if (angle != mAngle) {
+	    final int previous = mAngle;
+	    mAngle = angle;
+	    invalidateArc(previous, angle);
+	}
     }
 
     public int getAngle() { 
@@ -65,56 +92,138 @@ public class VolumeCircleView extends ImageView {
 	mListeners.add(listener);
     }
 
+    public void unregisterListener(ICircleAngleChanged listener) {
+	mListeners.remove(listener);
+    }
+
     /********************* ImageView methods ***************************/
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+	super.onSizeChanged(w, h, oldw, oldh);
+	mOval.set(0, 0, w, w);
+	mCenterX = w / 2.0f;
+	mCenterY = h / 2.0f;
+	final float radius = w / 2.0f;
+	for (int i = 0; i < mArcX.length; i++) {
+	    final double angle = Math.toRadians(ARC_START + i);
+	    mArcX[i] = (float) (radius + radius * Math.cos(angle));
+	    mArcY[i] = (float) (radius + radius * Math.sin(angle));
+	}
+	mTouchX = mTouchY = Float.NaN;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
 	super.onDraw(canvas);
-	mOval.left = mOval.top = 0;
-	mOval.right = mOval.bottom = this.getWidth();	
-	canvas.drawArc(mOval, 90, mAngle, true, mPaint);
+	if (mIsBackgroundLoaded) {
+	    canvas.drawArc(mOval, ARC_START, mAngle, true, mPaint);
+	}
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-	float centerX = getWidth() / 2.0f;
-	float centerY = getHeight() / 2.0f;
-	float touchedX = event.getX();
-	float touchedY = event.getY();
-	int angle = (int) (Math.toDegrees(Math.atan2(centerY - touchedY, centerX - touchedX))) + 90;	
-	if (angle < 0) {
-	    angle += 360;
+	final int previous = mAngle;
+	final int history = event.getHistorySize();
+	for (int i = 0; i < history; i++) {
+	    track(event.getHistoricalX(i), event.getHistoricalY(i));
 	}
-	if ((angle < 30) && (mAngle > 350)) {
-	    return true;
-	}	
-	if ((angle > 330) && (mAngle < 10)) {
-	    return true;
+	track(event.getX(), event.getY());
+	if (mAngle != previous) {
+	    invalidateArc(previous, mAngle);
+	    notifyDragged();
 	}
-	mAngle = angle;
 	if (event.getAction() == MotionEvent.ACTION_UP) {
 	    notifyListeners();
 	}
-	invalidate();
 	return true;
     }
 
     /********************* Private methods *****************************/
 
     private void init() {
-	BitmapShader bitmapShader = new BitmapShader(BitmapFactory.decodeResource(getResources()
-		, R.drawable.volume_background)
-		, TileMode.CLAMP
-		, TileMode.CLAMP);
 	mPaint.setColor(0xFF000000);
-	mPaint.setShader(bitmapShader);
 	mPaint.setAntiAlias(true);
 	mPaint.setDither(true);
+	final Resources resources = getResources();
+	new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		final Bitmap background = BitmapFactory.decodeResource(resources, R.drawable.volume_background);
+		post(new Runnable() {
+		    @Override
+		    public void run() {
+			mPaint.setShader(new BitmapShader(background, TileMode.CLAMP, TileMode.CLAMP));
+			mIsBackgroundLoaded = true;
+			invalidate();
+		    }
+		});
+	    }
+	}, DECODE_THREAD).start();
+    }
+
+    /**
+     * Moves the arc end to the touch point. The arc doesn't jump over the bottom, so it can't wrap from full to empty
+     */
+    private void track(float x, float y) {
+	if (x == mTouchX && y == mTouchY) {
+	    return;
+	}
+	mTouchX = x;
+	mTouchY = y;
+	int angle = (int) (Math.toDegrees(Math.atan2(mCenterY - y, mCenterX - x))) + 90;	
+	if (angle < 0) {
+	    angle += 360;
+	}
+	if ((angle < 30) && (mAngle > 350)) {
+	    return;
+	}	
+	if ((angle > 330) && (mAngle < 10)) {
+	    return;
+	}
+	mAngle = angle;
+    }
+
+    /**
+     * Invalidates bounds of the sector between two arc ends: the center, both ends and the extreme points of the circle in between.
+     * Only the software renderer (Android 2.x and unaccelerated windows) redraws just the dirty region,
+     * the hardware one re-records the whole display list, which is a single arc
+     */
+    private void invalidateArc(int from, int to) {
+	final int start = Math.max(0, Math.min(from, to));
+	final int end = Math.min(mArcX.length - 1, Math.max(from, to));
+	final RectF sector = mSector;
+	sector.set(mOval.centerX(), mOval.centerY(), mOval.centerX(), mOval.centerY());
+	include(sector, start);
+	include(sector, end);
+	// between the ends only the extreme points of the circle may widen the bounds
+	for (int i = start + (90 - (ARC_START + start) % 90) % 90; i < end; i += 90) {
+	    include(sector, i);
+	}
+	mDirty.set((int) sector.left - DIRTY_MARGIN, (int) sector.top - DIRTY_MARGIN,
+		(int) Math.ceil(sector.right) + DIRTY_MARGIN, (int) Math.ceil(sector.bottom) + DIRTY_MARGIN);
+	invalidate(mDirty);
+    }
+
+    /**
+     * Grows bounds to contain the arc point of given degree
+     */
+    private void include(RectF bounds, int degree) {
+	bounds.left = Math.min(bounds.left, mArcX[degree]);
+	bounds.top = Math.min(bounds.top, mArcY[degree]);
+	bounds.right = Math.max(bounds.right, mArcX[degree]);
+	bounds.bottom = Math.max(bounds.bottom, mArcY[degree]);
     }
 
     private void notifyListeners() {
-	for (ICircleAngleChanged listener : mListeners) {
+	for (ICircleAngleChanged listener : mListeners.snapshot()) {
 	    listener.onAngleChanged(mAngle);
 	}
     }
+
+    private void notifyDragged() {
+	for (ICircleAngleChanged listener : mListeners.snapshot()) {
+	    listener.onAngleDragged(mAngle);
+	}
+    }
 }
@@ -0,0 +1,40 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.File;
+
+import com.tartakynov.robotnoise.R;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+
+/**
+ * @author Artem Tartakynov
+ * The application's AnalyticsDispatcher, one per process so the persisted queue has a single writer.
+ * Debug builds log events instead of sending them
+ */
+public final class Analytics {
+    private static final String QUEUE_FILE = "analytics.queue";
+
+    private static volatile AnalyticsDispatcher sInstance = null;
+
+    private Analytics() {
+    }
+
+    public static AnalyticsDispatcher Open(Context context) {
+	if (sInstance == null) {
+	    synchronized (Analytics.class) {
+		if (sInstance == null) {
+		    sInstance = new AnalyticsDispatcher(createBackend(context), new File(context.getFilesDir(), QUEUE_FILE));
+		}
+	    }
+	}
+	return sInstance;
+    }
+
+    private static IAnalyticsBackend createBackend(Context context) {
+	if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+	    return new LogBackend();
+	}
+	return new GoogleAnalyticsBackend(context, context.getResources().getString(R.string.ganalytics));
+    }
+}
@@ -0,0 +1,257 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Artem Tartakynov
+ * Collects analytics events and sends them in batches on its own thread, so callers never wait for the disk
+ * or the network: track() only adds to an AnalyticsQueue and schedules a flush. A flush sends the queue batch by batch
+ * and saves what's left to the file, which is read back on creation, so events survive the process.
+ * When the backend fails the next flush is delayed twice as long each time up to the maximum backoff,
+ * explicit flush() requests are ignored until a send succeeds. Doesn't depend on Android
+ */
+public final class AnalyticsDispatcher {
+    public static final int DEFAULT_CAPACITY 		= 256; // events, the oldest are dropped beyond it
+    public static final int DEFAULT_BATCH_SIZE 		= 20;
+    public static final long DEFAULT_FLUSH_DELAY_MILLIS 	= 30000; // events within it are sent together
+    public static final long DEFAULT_BACKOFF_MILLIS 	= 5000; // after the first failure
+    public static final long MAX_BACKOFF_MILLIS 	= 600000;
+
+    private static final String THREAD_NAME 		= "Analytics";
+
+    private final IAnalyticsBackend mBackend; // accessed on the executor thread only
+    private final File mFile;
+    private final AnalyticsQueue mQueue;
+    private final AnalyticsEvent[] mBatch; // accessed on the executor thread only
+    private final long mFlushDelayMillis;
+    private final long mMinBackoffMillis;
+    private final ScheduledExecutorService mExecutor;
+    private final Object mSync = new Object();
+    private ScheduledFuture<?> mPending; // guarded by mSync
+    private long mPendingAt; // guarded by mSync, System.nanoTime() when the pending flush runs
+    private long mBackoffMillis = 0; // guarded by mSync, 0 unless the last send has failed
+    private long mSavedChanges = -1; // accessed on the executor thread only
+    private volatile int mSentCount = 0;
+    private volatile int mFailureCount = 0;
+
+    /**
+     * Persists the queue in file, null keeps it in memory only
+     */
+    public AnalyticsDispatcher(IAnalyticsBackend backend, File file) {
+	this(backend, file, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_DELAY_MILLIS, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    public AnalyticsDispatcher(IAnalyticsBackend backend, File file, int capacity, int batchSize, long flushDelayMillis,
+	    long minBackoffMillis) {
+	mBackend = backend;
+	mFile = file;
+	mQueue = new AnalyticsQueue(capacity);
+	mBatch = new AnalyticsEvent[batchSize];
+	mFlushDelayMillis = flushDelayMillis;
+	mMinBackoffMillis = minBackoffMillis;
+	mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		final Thread thread = new Thread(runnable, THREAD_NAME);
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	    }
+	});
+	mExecutor.execute(mLoad);
+	synchronized (mSync) {
+	    schedule(0); // events left by the previous process
+	}
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Queues event, it's sent within the flush delay or earlier if a batch is full. Never blocks on I/O
+     */
+    public void track(AnalyticsEvent event) {
+	mQueue.add(event);
+	synchronized (mSync) {
+	    if (mBackoffMillis == 0) {
+		schedule(mQueue.size() >= mBatch.length ? 0 : mFlushDelayMillis);
+	    }
+	}
+    }
+
+    /**
+     * Sends the queue as soon as possible unless the backend is failing. Doesn't wait for it
+     */
+    public void flush() {
+	synchronized (mSync) {
+	    if (mBackoffMillis == 0) {
+		schedule(0);
+	    }
+	}
+    }
+
+    /**
+     * Sends and saves what's queued, then stops the thread. Doesn't wait for it, track() does nothing afterwards
+     */
+    public void shutdown() {
+	synchronized (mSync) {
+	    if (mPending != null) {
+		mPending.cancel(false);
+		mPending = null;
+	    }
+	    if (!mExecutor.isShutdown()) {
+		mExecutor.execute(mFlush);
+		mExecutor.shutdown();
+	    }
+	}
+    }
+
+    public int size() {
+	return mQueue.size();
+    }
+
+    public int getSentCount() {
+	return mSentCount;
+    }
+
+    public int getDroppedCount() {
+	return mQueue.getDroppedCount();
+    }
+
+    /**
+     * Number of sends which have failed, each of them has delayed the next flush
+     */
+    public int getFailureCount() {
+	return mFailureCount;
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Makes sure a flush runs within delay, an earlier pending one is kept. Must be called under mSync
+     */
+    private void schedule(long delayMillis) {
+	if (mExecutor.isShutdown()) {
+	    return;
+	}
+	final long at = System.nanoTime() + delayMillis * 1000000;
+	if (mPending != null) {
+	    if (mPendingAt - at <= 0) {
+		return;
+	    }
+	    mPending.cancel(false);
+	}
+	mPendingAt = at;
+	mPending = mExecutor.schedule(mFlush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the queue batch by batch, returns false if the backend has failed
+     */
+    private boolean send() {
+	try {
+	    while (true) {
+		final int count = mQueue.peek(mBatch);
+		if (count == 0) {
+		    return true;
+		}
+		try {
+		    mBackend.send(mBatch, count);
+		} catch (IOException e) {
+		    return false;
+		} catch (RuntimeException e) {
+		    return false; // a broken backend must not kill the thread
+		}
+		mQueue.remove(mBatch, count);
+		mSentCount += count;
+	    }
+	} finally {
+	    Arrays.fill(mBatch, null);
+	}
+    }
+
+    /**
+     * Writes the queue to a temporary file and renames it over the old one, so a crash leaves either of them whole
+     */
+    private void save() {
+	final long changes = mQueue.getChangeCount();
+	if (mFile == null || changes == mSavedChanges) {
+	    return;
+	}
+	final File temp = new File(mFile.getPath() + ".tmp");
+	try {
+	    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+	    try {
+		mQueue.writeTo(out);
+	    } finally {
+		out.close();
+	    }
+	    if (temp.renameTo(mFile)) {
+		mSavedChanges = changes;
+	    }
+	} catch (IOException e) {
+	    temp.delete(); // retried by the next flush
+	}
+    }
+
+    private final Runnable mLoad = new Runnable() {
+	@Override
+	public void run() {
+	    if (mFile == null) {
+		return;
+	    }
+	    try {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+		try {
+		    mQueue.readFrom(in);
+		} finally {
+		    in.close();
+		}
+	    } catch (FileNotFoundException e) {
+		// nothing has been saved yet
+	    } catch (IOException e) {
+		mFile.delete(); // truncated or foreign, the events read so far are kept
+	    }
+	}
+    };
+
+    private final Runnable mFlush = new Runnable() {
+	@Override
+	public void run() {
+	    synchronized (mSync) {
+		mPending = null;
+	    }
+	    final boolean sent = send();
+	    save();
+	    synchronized (mSync) {
+		if (sent) {
+		    mBackoffMillis = 0;
+		    if (mQueue.size() > 0) {
+			schedule(mFlushDelayMillis); // added while sending
+		    }
+		} else {
+		    mFailureCount++;
+		    mBackoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(mMinBackoffMillis, mBackoffMillis * 2));
+		    if (mPending != null) {
+			mPending.cancel(false); // requested by track() while sending
+			mPending = null;
+		    }
+		    schedule(mBackoffMillis);
+		}
+	    }
+	}
+    };
+}
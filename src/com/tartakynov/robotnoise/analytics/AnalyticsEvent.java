@@ -0,0 +1,72 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * @author Artem Tartakynov
+ * Immutable analytics record, a page view or an event with category, action, label and value.
+ * Serialized as type (byte), time (long), then the strings as modified UTF-8 and the value (int)
+ */
+public final class AnalyticsEvent {
+    public static final int TYPE_PAGE_VIEW 	= 1;
+    public static final int TYPE_EVENT 		= 2;
+
+    public final int type;
+    public final long timeMillis; // System.currentTimeMillis() when it happened
+    public final String category; // empty for a page view
+    public final String action; // path of a page view
+    public final String label;
+    public final int value;
+
+    private AnalyticsEvent(int type, long timeMillis, String category, String action, String label, int value) {
+	this.type = type;
+	this.timeMillis = timeMillis;
+	this.category = category != null ? category : "";
+	this.action = action != null ? action : "";
+	this.label = label != null ? label : "";
+	this.value = value;
+    }
+
+    /********************* Public methods ******************************/
+
+    public static AnalyticsEvent pageView(String path) {
+	return new AnalyticsEvent(TYPE_PAGE_VIEW, System.currentTimeMillis(), null, path, null, 0);
+    }
+
+    public static AnalyticsEvent event(String category, String action, String label, int value) {
+	return new AnalyticsEvent(TYPE_EVENT, System.currentTimeMillis(), category, action, label, value);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+	out.writeByte(type);
+	out.writeLong(timeMillis);
+	if (type == TYPE_PAGE_VIEW) {
+	    out.writeUTF(action);
+	} else {
+	    out.writeUTF(category);
+	    out.writeUTF(action);
+	    out.writeUTF(label);
+	    out.writeInt(value);
+	}
+    }
+
+    public static AnalyticsEvent readFrom(DataInput in) throws IOException {
+	final int type = in.readByte();
+	final long time = in.readLong();
+	switch (type) {
+	case TYPE_PAGE_VIEW:
+	    return new AnalyticsEvent(type, time, null, in.readUTF(), null, 0);
+	case TYPE_EVENT:
+	    return new AnalyticsEvent(type, time, in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+	default:
+	    throw new IOException("Unknown analytics event type " + type);
+	}
+    }
+
+    @Override
+    public String toString() {
+	return type == TYPE_PAGE_VIEW ? "page " + action : "event " + category + "/" + action + "/" + label + " " + value;
+    }
+}
@@ -0,0 +1,121 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * @author Artem Tartakynov
+ * Bounded ring of analytics events waiting to be sent. When it's full the oldest event is dropped,
+ * so memory and the persisted file never grow. A sent batch is removed by identity of its events,
+ * which stays right even if some of them have been dropped while it was being sent.
+ * Persisted as a header (magic, version, count) followed by the events, see AnalyticsEvent
+ */
+public final class AnalyticsQueue {
+    public static final int MAGIC 	= 0x5242414E; // "RBAN"
+    public static final short VERSION 	= 1;
+
+    private final AnalyticsEvent[] mEvents;
+    private long mFirst = 0; // sequence of the oldest event
+    private long mNext = 0; // sequence of the next event
+    private int mDroppedCount = 0;
+    private long mChangeCount = 0;
+
+    public AnalyticsQueue(int capacity) {
+	mEvents = new AnalyticsEvent[capacity];
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Adds event, drops the oldest one if the queue is full
+     */
+    public synchronized void add(AnalyticsEvent event) {
+	if (mNext - mFirst == mEvents.length) {
+	    mEvents[index(mFirst)] = null;
+	    mFirst++;
+	    mDroppedCount++;
+	}
+	mEvents[index(mNext)] = event;
+	mNext++;
+	mChangeCount++;
+    }
+
+    /**
+     * Copies the oldest events into batch, returns number of copied events
+     */
+    public synchronized int peek(AnalyticsEvent[] batch) {
+	final int count = (int) Math.min(batch.length, mNext - mFirst);
+	for (int i = 0; i < count; i++) {
+	    batch[i] = mEvents[index(mFirst + i)];
+	}
+	return count;
+    }
+
+    /**
+     * Removes the events of a batch returned by peek(), the ones dropped since then are skipped
+     */
+    public synchronized void remove(AnalyticsEvent[] batch, int count) {
+	for (int i = 0; i < count && mFirst < mNext; i++) {
+	    if (mEvents[index(mFirst)] == batch[i]) {
+		mEvents[index(mFirst)] = null;
+		mFirst++;
+		mChangeCount++;
+	    }
+	}
+    }
+
+    public synchronized int size() {
+	return (int) (mNext - mFirst);
+    }
+
+    /**
+     * Grows with every added or removed event, the queue has changed if it differs from the one seen before
+     */
+    public synchronized long getChangeCount() {
+	return mChangeCount;
+    }
+
+    /**
+     * Number of events dropped because the queue was full
+     */
+    public synchronized int getDroppedCount() {
+	return mDroppedCount;
+    }
+
+    /**
+     * Writes all events. The events are copied under the lock and written without it, so adding doesn't wait for the disk
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+	final AnalyticsEvent[] events;
+	synchronized (this) {
+	    events = new AnalyticsEvent[size()];
+	    peek(events);
+	}
+	out.writeInt(MAGIC);
+	out.writeShort(VERSION);
+	out.writeShort(events.length);
+	for (AnalyticsEvent event : events) {
+	    event.writeTo(out);
+	}
+    }
+
+    /**
+     * Adds events written by writeTo(), they are older than the ones in the queue but are added after them
+     */
+    public void readFrom(DataInputStream in) throws IOException {
+	if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+	    throw new IOException("Not an analytics queue");
+	}
+	final int count = in.readUnsignedShort();
+	for (int i = 0; i < count; i++) {
+	    add(AnalyticsEvent.readFrom(in));
+	}
+    }
+
+    /********************* Private methods *****************************/
+
+    private int index(long sequence) {
+	return (int) (sequence % mEvents.length);
+    }
+}
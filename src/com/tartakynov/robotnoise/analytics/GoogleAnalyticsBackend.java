@@ -0,0 +1,63 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.IOException;
+
+import com.google.android.apps.analytics.GoogleAnalyticsTracker;
+
+import android.content.Context;
+
+/**
+ * @author Artem Tartakynov
+ * Hands events over to Google Analytics. The tracker keeps accepted hits in its own store and dispatches them
+ * on its own thread. A batch fails if the tracker rejects an event or can't start the dispatch (busy or offline),
+ * then AnalyticsDispatcher backs off and retries it. The hits of the retried batch are in the tracker's store
+ * already, so they are only dispatched again, not tracked twice, a rejected event is skipped.
+ * The session is started on the first batch, on the dispatcher's thread like everything else
+ */
+public final class GoogleAnalyticsBackend implements IAnalyticsBackend {
+    private final Context mContext;
+    private final String mAccountId;
+    private GoogleAnalyticsTracker mTracker;
+    private AnalyticsEvent mLastTracked; // the newest event handed over to the tracker
+
+    public GoogleAnalyticsBackend(Context context, String accountId) {
+	mContext = context.getApplicationContext();
+	mAccountId = accountId;
+    }
+
+    /********************* IAnalyticsBackend ***************************/
+
+    @Override
+    public void send(AnalyticsEvent[] batch, int count) throws IOException {
+	if (mTracker == null) {
+	    mTracker = GoogleAnalyticsTracker.getInstance();
+	    mTracker.startNewSession(mAccountId, mContext);
+	}
+	int first = 0;
+	for (int i = 0; i < count; i++) {
+	    if (batch[i] == mLastTracked) {
+		first = i + 1; // retried batch, its head is tracked already
+		break;
+	    }
+	}
+	for (int i = first; i < count; i++) {
+	    final AnalyticsEvent event = batch[i];
+	    try {
+		if (event.type == AnalyticsEvent.TYPE_PAGE_VIEW) {
+		    mTracker.trackPageView(event.action);
+		} else {
+		    mTracker.trackEvent(event.category, event.action, event.label, event.value);
+		}
+	    } catch (RuntimeException e) {
+		mLastTracked = event; // invalid arguments would be rejected again, the retry skips the event
+		final IOException error = new IOException("Tracker rejected " + event.action);
+		error.initCause(e);
+		throw error;
+	    }
+	    mLastTracked = event;
+	}
+	if (!mTracker.dispatch()) {
+	    throw new IOException("Dispatch hasn't started");
+	}
+    }
+}
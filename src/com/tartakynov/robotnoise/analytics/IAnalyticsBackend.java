@@ -0,0 +1,16 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.IOException;
+
+/**
+ * @author Artem Tartakynov
+ * Delivers analytics events somewhere. Called by AnalyticsDispatcher on its own thread only,
+ * so implementations may block and don't need to be thread-safe
+ */
+public interface IAnalyticsBackend {
+    /**
+     * Delivers the first count events of batch, oldest first. Throws if none of them have been accepted,
+     * then the whole batch is retried later
+     */
+    void send(AnalyticsEvent[] batch, int count) throws IOException;
+}
@@ -0,0 +1,23 @@
+package com.tartakynov.robotnoise.analytics;
+
+import java.io.IOException;
+
+import android.util.Log;
+
+/**
+ * @author Artem Tartakynov
+ * Writes events to logcat instead of sending them, used by debug builds so they don't pollute the statistics
+ */
+public final class LogBackend implements IAnalyticsBackend {
+    private static final String LOG_TAG = "Analytics";
+
+    /********************* IAnalyticsBackend ***************************/
+
+    @Override
+    public void send(AnalyticsEvent[] batch, int count) throws IOException {
+	for (int i = 0; i < count; i++) {
+	    Log.d(LOG_TAG, batch[i].toString());
+	}
+	Log.d(LOG_TAG, "Sent " + count + " events");
+    }
+}
@@ -0,0 +1,120 @@
+package com.tartakynov.robotnoise.audio;
+
+/**
+ * @author Artem Tartakynov
+ * Tracks audio focus and decides whether sounds may play and how loud. Ducking lowers the gain, a transient
+ * loss pauses the playback, a permanent loss pauses it and gives the focus up. The clips stay loaded in
+ * all cases, so the playback resumes immediately. Doesn't depend on Android, the focus is requested through
+ * IFocusRequester and the focus changes are passed in by the owner. Thread-safe
+ */
+public final class AudioFocusController {
+
+    /**
+     * @author Artem Tartakynov
+     * Requests and abandons audio focus, usually backed by AudioManager
+     */
+    public interface IFocusRequester {
+	/**
+	 * Returns true if the focus is granted
+	 */
+	boolean requestFocus();
+
+	void abandonFocus();
+    }
+
+    /**
+     * @author Artem Tartakynov
+     * Receives playback permission and gain changes
+     */
+    public interface IListener {
+	void onPlaybackChanged(boolean canPlay, float gain);
+    }
+
+    public static final int 	STATE_IDLE 	= 0; // not started or stopped
+    public static final int 	STATE_FOCUSED 	= 1;
+    public static final int 	STATE_DUCKED 	= 2;
+    public static final int 	STATE_PAUSED 	= 3; // transient loss
+    public static final int 	STATE_LOST 	= 4; // permanent loss, the focus is requested again by start()
+    public static final float	DUCK_GAIN 	= 0.2f;
+
+    private final IFocusRequester mRequester;
+    private final IListener mListener;
+    private int mState = STATE_IDLE;
+
+    public AudioFocusController(IFocusRequester requester, IListener listener) {
+	mRequester = requester;
+	mListener = listener;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Requests the focus unless it's held already
+     */
+    public synchronized void start() {
+	if (mState == STATE_IDLE || mState == STATE_LOST) {
+	    setState(mRequester.requestFocus() ? STATE_FOCUSED : STATE_LOST);
+	}
+    }
+
+    /**
+     * Abandons the focus
+     */
+    public synchronized void stop() {
+	if (mState != STATE_IDLE && mState != STATE_LOST) {
+	    mRequester.abandonFocus();
+	}
+	setState(STATE_IDLE);
+    }
+
+    public synchronized void onGain() {
+	if (mState != STATE_IDLE && mState != STATE_LOST) { // the focus has been abandoned then
+	    setState(STATE_FOCUSED);
+	}
+    }
+
+    public synchronized void onLoss() {
+	if (mState != STATE_IDLE && mState != STATE_LOST) {
+	    mRequester.abandonFocus();
+	    setState(STATE_LOST);
+	}
+    }
+
+    public synchronized void onLossTransient() {
+	if (mState != STATE_IDLE && mState != STATE_LOST) {
+	    setState(STATE_PAUSED);
+	}
+    }
+
+    public synchronized void onLossTransientCanDuck() {
+	if (mState != STATE_IDLE && mState != STATE_LOST) {
+	    setState(STATE_DUCKED);
+	}
+    }
+
+    public synchronized int getState() {
+	return mState;
+    }
+
+    public synchronized boolean canPlay() {
+	return mState == STATE_FOCUSED || mState == STATE_DUCKED;
+    }
+
+    public synchronized float getGain() {
+	return mState == STATE_DUCKED ? DUCK_GAIN : 1.0f;
+    }
+
+    /********************* Private methods *****************************/
+
+    private void setState(int state) {
+	if (state == mState) {
+	    return;
+	}
+	final boolean couldPlay = canPlay();
+	final float gain = getGain();
+	mState = state;
+	if (couldPlay != canPlay() || gain != getGain()) {
+	    mListener.onPlaybackChanged(canPlay(), getGain());
+	}
+    }
+}
@@ -0,0 +1,191 @@
+package com.tartakynov.robotnoise.audio;
+
+import java.util.Random;
+
+/**
+ * @author Artem Tartakynov
+ * Mixes decoded mono clips into blocks of 16-bit PCM. Every started sound takes one of a fixed number of voices,
+ * when all voices are busy the oldest one is reused, so a fast walk never drops a step. Every voice has its own gain
+ * and playback rate, which is varied a bit at random so consecutive steps don't sound identical.
+ * A new volume is ramped linearly over the next block, so dragging the volume dial doesn't click.
+ * A voice keeps the samples passed in only while it plays. Doesn't depend on Android and doesn't allocate
+ * after construction. Sounds may be started from any thread, blocks are rendered on the audio thread
+ */
+public final class AudioMixer {
+    public static final float DEFAULT_PITCH_VARIATION 	= 0.06f; // +-6% of the rate, about a semitone
+    public static final float DEFAULT_GAIN_VARIATION 	= 0.15f;
+
+    private final int mSampleRate;
+    private final short[][] mVoiceSamples; // null if the voice is free
+    private final float[] mVoicePosition;
+    private final float[] mVoiceStep;
+    private final float[] mVoiceGain;
+    private final long[] mVoiceStarted;
+    private final float[] mMix;
+    private final Random mRandom = new Random();
+    private float mPitchVariation = DEFAULT_PITCH_VARIATION;
+    private float mGainVariation = DEFAULT_GAIN_VARIATION;
+    private float mVolume = 1.0f; // target of the ramp
+    private float mGain = 1.0f; // volume at the end of the last rendered block
+    private long mStarted = 0;
+    private int mActive = 0;
+
+    /**
+     * @param sampleRate output sample rate
+     * @param voices number of sounds which can play at once
+     * @param blockFrames the biggest block which is rendered at once
+     */
+    public AudioMixer(int sampleRate, int voices, int blockFrames) {
+	mSampleRate = sampleRate;
+	mVoiceSamples = new short[voices][];
+	mVoicePosition = new float[voices];
+	mVoiceStep = new float[voices];
+	mVoiceGain = new float[voices];
+	mVoiceStarted = new long[voices];
+	mMix = new float[blockFrames];
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Starts mono samples with randomly varied gain and rate
+     */
+    public synchronized void play(short[] samples, int sampleRate) {
+	start(samples, (float) sampleRate / mSampleRate * randomPitch(), randomGain());
+    }
+
+    /**
+     * Sets volume for all voices, it's reached by the end of the next block. Applied at once if nothing is playing
+     */
+    public synchronized void setVolume(float volume) {
+	mVolume = volume;
+	if (mActive == 0) {
+	    mGain = volume;
+	}
+    }
+
+    /**
+     * Sets random variation of rate and gain of every started clip, 0 plays the clips as is
+     */
+    public synchronized void setVariation(float pitchVariation, float gainVariation) {
+	mPitchVariation = pitchVariation;
+	mGainVariation = gainVariation;
+    }
+
+    /**
+     * Stops all voices
+     */
+    public synchronized void stopAll() {
+	for (int i = 0; i < mVoiceSamples.length; i++) {
+	    stopVoice(i);
+	}
+    }
+
+    /**
+     * True if any voice is playing
+     */
+    public synchronized boolean isActive() {
+	return mActive > 0;
+    }
+
+    /**
+     * Blocks until a voice starts or the timeout expires, returns isActive()
+     */
+    public synchronized boolean awaitActive(long timeoutMillis) throws InterruptedException {
+	if (mActive == 0) {
+	    wait(timeoutMillis);
+	}
+	return mActive > 0;
+    }
+
+    /**
+     * Renders the next block of all playing voices, frames must not exceed the block size
+     */
+    public synchronized void render(short[] output, int offset, int frames) {
+	final float[] mix = mMix;
+	for (int i = 0; i < frames; i++) {
+	    mix[i] = 0;
+	}
+	for (int voice = 0; voice < mVoiceSamples.length; voice++) {
+	    if (mVoiceSamples[voice] != null) {
+		renderVoice(voice, mix, frames);
+	    }
+	}
+	final float step = (mVolume - mGain) / frames;
+	float gain = mGain;
+	for (int i = 0; i < frames; i++) {
+	    gain += step;
+	    final float sample = mix[i] * gain;
+	    output[offset + i] = (short) (sample > Short.MAX_VALUE ? Short.MAX_VALUE : sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+	}
+	mGain = mVolume;
+    }
+
+    public int getSampleRate() {
+	return mSampleRate;
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Takes a free voice or the oldest one, must be called under the lock
+     */
+    private void start(short[] samples, float step, float gain) {
+	int voice = 0;
+	for (int i = 0; i < mVoiceSamples.length; i++) {
+	    if (mVoiceSamples[i] == null) {
+		voice = i;
+		break;
+	    }
+	    if (mVoiceStarted[i] < mVoiceStarted[voice]) {
+		voice = i;
+	    }
+	}
+	if (mVoiceSamples[voice] == null) {
+	    mActive++;
+	}
+	mVoiceSamples[voice] = samples;
+	mVoicePosition[voice] = 0;
+	mVoiceStep[voice] = step;
+	mVoiceGain[voice] = gain;
+	mVoiceStarted[voice] = ++mStarted;
+	notifyAll();
+    }
+
+    private float randomPitch() {
+	return 1 + mPitchVariation * (2 * mRandom.nextFloat() - 1);
+    }
+
+    private float randomGain() {
+	return 1 - mGainVariation * mRandom.nextFloat();
+    }
+
+    /**
+     * Adds the voice to the mix with linear interpolation between the clip samples
+     */
+    private void renderVoice(int voice, float[] mix, int frames) {
+	final short[] clip = mVoiceSamples[voice];
+	final int last = clip.length - 1;
+	final float step = mVoiceStep[voice];
+	final float gain = mVoiceGain[voice];
+	float position = mVoicePosition[voice];
+	for (int i = 0; i < frames; i++) {
+	    final int index = (int) position;
+	    if (index >= last) {
+		stopVoice(voice);
+		return;
+	    }
+	    final float fraction = position - index;
+	    mix[i] += gain * (clip[index] + fraction * (clip[index + 1] - clip[index]));
+	    position += step;
+	}
+	mVoicePosition[voice] = position;
+    }
+
+    private void stopVoice(int voice) {
+	if (mVoiceSamples[voice] != null) {
+	    mVoiceSamples[voice] = null;
+	    mActive--;
+	}
+    }
+}
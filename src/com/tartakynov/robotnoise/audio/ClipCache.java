@@ -0,0 +1,112 @@
+package com.tartakynov.robotnoise.audio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Artem Tartakynov
+ * Least recently used cache of decoded clips bounded by the total size of PCM data, so switching sound packs
+ * or regaining audio focus doesn't decode the same files again. A clip bigger than the whole budget is refused.
+ * Thread-safe
+ */
+public final class ClipCache {
+    public static final int DEFAULT_BUDGET_BYTES = 2 * 1024 * 1024;
+
+    private final LinkedHashMap<String, PcmClip> mClips = new LinkedHashMap<String, PcmClip>(16, 0.75f, true);
+    private int mBudgetBytes;
+    private int mSizeBytes = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mEvictions = 0;
+
+    public ClipCache(int budgetBytes) {
+	mBudgetBytes = budgetBytes;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Returns cached clip and marks it as recently used, null if there is no such clip
+     */
+    public synchronized PcmClip get(String key) {
+	final PcmClip clip = mClips.get(key);
+	if (clip != null) {
+	    mHits++;
+	} else {
+	    mMisses++;
+	}
+	return clip;
+    }
+
+    /**
+     * True if the clip is cached, doesn't count as a use
+     */
+    public synchronized boolean contains(String key) {
+	return mClips.containsKey(key);
+    }
+
+    /**
+     * Adds clip, the least recently used clips are evicted until the cache fits the budget.
+     * Returns false if the clip is bigger than the budget, then it isn't cached
+     */
+    public synchronized boolean put(String key, PcmClip clip) {
+	final PcmClip previous = mClips.remove(key);
+	if (previous != null) {
+	    mSizeBytes -= previous.getSizeBytes();
+	}
+	if (clip.getSizeBytes() > mBudgetBytes) {
+	    return false;
+	}
+	trimTo(mBudgetBytes - clip.getSizeBytes());
+	mClips.put(key, clip);
+	mSizeBytes += clip.getSizeBytes();
+	return true;
+    }
+
+    /**
+     * Drops all clips
+     */
+    public synchronized void clear() {
+	trimTo(0);
+    }
+
+    public synchronized int getSizeBytes() {
+	return mSizeBytes;
+    }
+
+    public synchronized int getBudgetBytes() {
+	return mBudgetBytes;
+    }
+
+    /**
+     * Changes the budget, the least recently used clips are evicted until the cache fits it
+     */
+    public synchronized void setBudgetBytes(int budgetBytes) {
+	mBudgetBytes = budgetBytes;
+	trimTo(budgetBytes);
+    }
+
+    public synchronized int getHitCount() {
+	return mHits;
+    }
+
+    public synchronized int getMissCount() {
+	return mMisses;
+    }
+
+    public synchronized int getEvictionCount() {
+	return mEvictions;
+    }
+
+    /********************* Private methods *****************************/
+
+    private void trimTo(int sizeBytes) {
+	final Iterator<Map.Entry<String, PcmClip>> iterator = mClips.entrySet().iterator();
+	while (mSizeBytes > sizeBytes && iterator.hasNext()) {
+	    mSizeBytes -= iterator.next().getValue().getSizeBytes();
+	    iterator.remove();
+	    mEvictions++;
+	}
+    }
+}
@@ -0,0 +1,139 @@
+package com.tartakynov.robotnoise.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+
+/**
+ * @author Artem Tartakynov
+ * Decodes a compressed clip of a sound pack into mono 16-bit PCM with the platform decoder.
+ * The instance keeps its work buffer between clips
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class ClipDecoder {
+    private static final long TIMEOUT_US = 10000;
+
+    private short[] mSamples = new short[0];
+    private int mLength = 0;
+    private int mSampleRate = 0;
+
+    /**
+     * Decodes the first audio track of the clip
+     */
+    public PcmClip decode(Context context, SoundPack.Clip clip) throws IOException {
+	mLength = 0;
+	final MediaExtractor extractor = new MediaExtractor();
+	try {
+	    if (clip.file != null) {
+		extractor.setDataSource(clip.file.getAbsolutePath());
+	    } else {
+		final AssetFileDescriptor fd = context.getResources().openRawResourceFd(clip.resource);
+		try {
+		    extractor.setDataSource(fd.getFileDescriptor(), fd.getStartOffset(), fd.getLength());
+		} finally {
+		    fd.close();
+		}
+	    }
+	    final MediaFormat format = selectAudioTrack(extractor);
+	    if (format == null) {
+		throw new IOException("No audio track in " + clip.key);
+	    }
+	    mSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+	    decode(extractor, format);
+	} finally {
+	    extractor.release();
+	}
+	final short[] samples = new short[mLength];
+	System.arraycopy(mSamples, 0, samples, 0, mLength);
+	return new PcmClip(samples, mSampleRate);
+    }
+
+    /********************* Private methods *****************************/
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+	for (int i = 0; i < extractor.getTrackCount(); i++) {
+	    final MediaFormat format = extractor.getTrackFormat(i);
+	    if (format.getString(MediaFormat.KEY_MIME).startsWith("audio/")) {
+		extractor.selectTrack(i);
+		return format;
+	    }
+	}
+	return null;
+    }
+
+    private void decode(MediaExtractor extractor, MediaFormat format) {
+	final MediaCodec codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+	codec.configure(format, null, null, 0);
+	codec.start();
+	try {
+	    final ByteBuffer[] inputs = codec.getInputBuffers();
+	    ByteBuffer[] outputs = codec.getOutputBuffers();
+	    final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+	    int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+	    boolean inputDone = false;
+	    while (true) {
+		if (!inputDone) {
+		    final int index = codec.dequeueInputBuffer(TIMEOUT_US);
+		    if (index >= 0) {
+			final int size = extractor.readSampleData(inputs[index], 0);
+			if (size < 0) {
+			    codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+			    inputDone = true;
+			} else {
+			    codec.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+			    extractor.advance();
+			}
+		    }
+		}
+		final int index = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+		if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+		    outputs = codec.getOutputBuffers();
+		} else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+		    final MediaFormat output = codec.getOutputFormat();
+		    channels = output.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+		    mSampleRate = output.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+		} else if (index >= 0) {
+		    final ByteBuffer buffer = outputs[index];
+		    buffer.position(info.offset);
+		    buffer.limit(info.offset + info.size);
+		    append(buffer.order(ByteOrder.nativeOrder()).asShortBuffer(), channels);
+		    codec.releaseOutputBuffer(index, false);
+		    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+			break;
+		    }
+		}
+	    }
+	} finally {
+	    codec.stop();
+	    codec.release();
+	}
+    }
+
+    /**
+     * Appends interleaved samples mixed down to mono
+     */
+    private void append(ShortBuffer pcm, int channels) {
+	final int frames = pcm.remaining() / channels;
+	if (mLength + frames > mSamples.length) {
+	    final short[] grown = new short[Math.max(mSamples.length * 2, mLength + frames)];
+	    System.arraycopy(mSamples, 0, grown, 0, mLength);
+	    mSamples = grown;
+	}
+	for (int i = 0; i < frames; i++) {
+	    int sum = 0;
+	    for (int c = 0; c < channels; c++) {
+		sum += pcm.get();
+	    }
+	    mSamples[mLength++] = (short) (sum / channels);
+	}
+    }
+}
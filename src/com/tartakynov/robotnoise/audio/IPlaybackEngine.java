@@ -0,0 +1,45 @@
+package com.tartakynov.robotnoise.audio;
+
+import android.content.Context;
+
+/**
+ * @author Artem Tartakynov
+ * Plays short clips with predictable latency. Implementations are not required to be thread-safe,
+ * the owner serializes the calls. Clips may finish loading asynchronously, IListener tells when they are ready
+ */
+public interface IPlaybackEngine {
+
+    /**
+     * @author Artem Tartakynov
+     * Receives notification that the clips of the loaded pack can be played
+     */
+    public interface IListener {
+	void onLoaded();
+    }
+
+    /**
+     * Loads and prepares clips of the pack, index of the sound in the pack is used as a sound id later
+     */
+    void load(Context context, SoundPack pack);
+
+    /**
+     * Sets listener which is notified once the clips passed to load() are ready, it may be called on any thread
+     * including the one calling load()
+     */
+    void setListener(IListener listener);
+
+    /**
+     * Starts playing of the next clip of the sound, the sound may overlap with other sounds which are still playing
+     */
+    void play(int sound);
+
+    /**
+     * Sets volume for all sounds
+     */
+    void setVolume(float volume);
+
+    /**
+     * Frees all resources, the engine can be loaded again later
+     */
+    void release();
+}
@@ -0,0 +1,70 @@
+package com.tartakynov.robotnoise.audio;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+
+/**
+ * @author Artem Tartakynov
+ * Playback engine which uses one MediaPlayer per sound, only the first clip of every sound is played.
+ * A sound is ignored while the same sound is still playing
+ */
+public class MediaPlayerEngine implements IPlaybackEngine {
+    private MediaPlayer[] mPlayers = new MediaPlayer[0];
+    private float mVolume = 1.0f;
+    private IListener mListener;
+
+    /********************* IPlaybackEngine *****************************/
+
+    @Override
+    public void load(Context context, SoundPack pack) {
+	release();
+	mPlayers = new MediaPlayer[pack.getSoundCount()];
+	for (int i = 0; i < mPlayers.length; i++) {
+	    if (pack.getClipCount(i) == 0) {
+		continue;
+	    }
+	    final SoundPack.Clip clip = pack.getClip(i, 0);
+	    mPlayers[i] = (clip.file != null)
+		    ? MediaPlayer.create(context, Uri.fromFile(clip.file)) : MediaPlayer.create(context, clip.resource);
+	    if (mPlayers[i] != null) {
+		mPlayers[i].setVolume(mVolume, mVolume);
+	    }
+	}
+	if (mListener != null) {
+	    mListener.onLoaded(); // MediaPlayer.create() prepares synchronously
+	}
+    }
+
+    @Override
+    public void setListener(IListener listener) {
+	mListener = listener;
+    }
+
+    @Override
+    public void play(int sound) {
+	if (sound < mPlayers.length && mPlayers[sound] != null) {
+	    mPlayers[sound].start();
+	}
+    }
+
+    @Override
+    public void setVolume(float volume) {
+	mVolume = volume;
+	for (MediaPlayer player : mPlayers) {
+	    if (player != null) {
+		player.setVolume(volume, volume);
+	    }
+	}
+    }
+
+    @Override
+    public void release() {
+	for (MediaPlayer player : mPlayers) {
+	    if (player == null) continue;
+	    if (player.isPlaying()) player.stop();
+	    player.release();
+	}
+	mPlayers = new MediaPlayer[0];
+    }
+}
@@ -0,0 +1,290 @@
+package com.tartakynov.robotnoise.audio;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * @author Artem Tartakynov
+ * Playback engine which mixes decoded clips in process with AudioMixer, the mix is streamed to AudioTrack
+ * by its own thread. Sounds never cut each other off and every step sounds a bit different.
+ * The track keeps playing silence for a grace period after the last sound, so steps of a walk don't pay
+ * for its startup, it's stopped when the user stands still.
+ * Clips are decoded lazily on a decoder thread and kept only in the shared ClipCache: loading a pack decodes
+ * the first clip of every sound, playing a clip queues the one which plays next. A clip which isn't decoded yet
+ * is replaced by a decoded clip of the same sound, or played as soon as it's decoded if there is none.
+ * A clip bigger than the cache budget is rejected once and never played, like a clip which fails to decode.
+ * Memory is bounded by the cache budget plus the clips of the playing voices and the decoder's work buffer,
+ * which grows to the longest clip decoded. Requires API 16 for the decoder
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class MixerEngine implements IPlaybackEngine {
+    private static final String LOG_TAG 	= "MixerEngine";
+    private static final String THREAD_NAME 	= "RobotMixer";
+    private static final String DECODER_THREAD_NAME = "RobotDecoder";
+    private static final int MAX_VOICES 	= 4;
+    private static final int BLOCK_FRAMES 	= 256;
+    private static final long IDLE_WAIT 	= 1000; // ms
+    private static final int IDLE_GRACE 	= 3000; // ms of silence before the track is stopped, a few strides
+
+    private final ClipCache mCache;
+    private AudioMixer mMixer;
+    private RenderThread mThread;
+    private DecodeThread mDecoder;
+    private SoundPack.Clip[][] mClips = new SoundPack.Clip[0][]; // by sound
+    private int[] mNextClip = new int[0];
+    private float mVolume = 1.0f;
+    private IListener mListener;
+
+    public MixerEngine(ClipCache cache) {
+	mCache = cache;
+    }
+
+    /********************* IPlaybackEngine *****************************/
+
+    @Override
+    public void load(Context context, SoundPack pack) {
+	release();
+	final int sounds = pack.getSoundCount();
+	mClips = new SoundPack.Clip[sounds][];
+	mNextClip = new int[sounds];
+	for (int i = 0; i < sounds; i++) {
+	    mClips[i] = new SoundPack.Clip[pack.getClipCount(i)];
+	    for (int j = 0; j < mClips[i].length; j++) {
+		mClips[i][j] = pack.getClip(i, j);
+	    }
+	}
+	final int sampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+	mMixer = new AudioMixer(sampleRate, MAX_VOICES, BLOCK_FRAMES);
+	mMixer.setVolume(mVolume);
+	mThread = new RenderThread(mMixer);
+	mThread.start();
+	mDecoder = new DecodeThread(context.getApplicationContext(), mCache, mMixer, mListener);
+	mDecoder.start();
+	for (SoundPack.Clip[] clips : mClips) {
+	    if (clips.length > 0) {
+		prefetch(clips[0]);
+	    }
+	}
+	mDecoder.requestNotify(); // the requests are served in order, so it runs once the first clips are decoded
+    }
+
+    @Override
+    public void setListener(IListener listener) {
+	mListener = listener;
+    }
+
+    @Override
+    public void play(int sound) {
+	if (mMixer == null || sound >= mClips.length || mClips[sound].length == 0) {
+	    return;
+	}
+	final SoundPack.Clip[] clips = mClips[sound];
+	final SoundPack.Clip clip = clips[mNextClip[sound]];
+	mNextClip[sound] = (mNextClip[sound] + 1) % clips.length;
+	PcmClip pcm = mCache.get(clip.key);
+	if (pcm == null) {
+	    pcm = findDecoded(clips);
+	    mDecoder.request(clip, pcm == null); // without a substitute the step sounds late rather than never
+	}
+	if (pcm != null) {
+	    mMixer.play(pcm.samples, pcm.sampleRate);
+	}
+	prefetch(clips[mNextClip[sound]]);
+    }
+
+    @Override
+    public void setVolume(float volume) {
+	mVolume = volume;
+	if (mMixer != null) {
+	    mMixer.setVolume(volume);
+	}
+    }
+
+    @Override
+    public void release() {
+	if (mThread != null) {
+	    mThread.quit();
+	    mThread = null;
+	    mDecoder.quit();
+	    mDecoder = null;
+	    mMixer = null;
+	}
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Queues decoding of the clip unless it's cached
+     */
+    private void prefetch(SoundPack.Clip clip) {
+	if (!mCache.contains(clip.key)) {
+	    mDecoder.request(clip, false);
+	}
+    }
+
+    /**
+     * Any decoded clip of the sound, null if there is none
+     */
+    private PcmClip findDecoded(SoundPack.Clip[] clips) {
+	for (SoundPack.Clip clip : clips) {
+	    if (mCache.contains(clip.key)) {
+		final PcmClip pcm = mCache.get(clip.key);
+		if (pcm != null) {
+		    return pcm;
+		}
+	    }
+	}
+	return null;
+    }
+
+    /********************* Render thread *******************************/
+
+    /**
+     * Streams the mix while any voice plays and sleeps otherwise
+     */
+    private static class RenderThread extends Thread {
+	private final AudioMixer mMixer;
+	private final short[] mBlock = new short[BLOCK_FRAMES];
+	private volatile boolean mRunning = true;
+
+	RenderThread(AudioMixer mixer) {
+	    super(THREAD_NAME);
+	    mMixer = mixer;
+	}
+
+	void quit() {
+	    mRunning = false;
+	    interrupt();
+	}
+
+	@Override
+	public void run() {
+	    Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+	    final int sampleRate = mMixer.getSampleRate();
+	    final int minBuffer = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+	    final AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+		    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, BLOCK_FRAMES * 2 * 2), AudioTrack.MODE_STREAM);
+	    final int graceBlocks = (int) ((long) sampleRate * IDLE_GRACE / 1000 / BLOCK_FRAMES);
+	    try {
+		while (mRunning) {
+		    if (!mMixer.awaitActive(IDLE_WAIT)) {
+			continue;
+		    }
+		    track.play();
+		    int idleBlocks = 0;
+		    while (mRunning && idleBlocks <= graceBlocks) {
+			idleBlocks = mMixer.isActive() ? 0 : idleBlocks + 1;
+			mMixer.render(mBlock, 0, BLOCK_FRAMES); // silence while idle, write() paces the loop
+			track.write(mBlock, 0, BLOCK_FRAMES);
+		    }
+		    track.stop(); // plays out the written tail
+		}
+	    } catch (InterruptedException e) {
+		// released
+	    } finally {
+		track.release();
+	    }
+	}
+    }
+
+    /********************* Decoder thread ******************************/
+
+    /**
+     * Decodes requested clips into the cache, a clip which fails to decode stays silent
+     */
+    private static class DecodeThread extends Thread {
+	private static final class Request {
+	    final SoundPack.Clip clip; // null to notify the listener
+	    final boolean play; // start it once decoded
+
+	    Request(SoundPack.Clip clip, boolean play) {
+		this.clip = clip;
+		this.play = play;
+	    }
+	}
+
+	private final Context mContext;
+	private final ClipCache mCache;
+	private final AudioMixer mMixer;
+	private final IListener mListener;
+	private final LinkedBlockingQueue<Request> mRequests = new LinkedBlockingQueue<Request>();
+	private final HashSet<String> mFailed = new HashSet<String>(); // not retried on every play
+	private volatile boolean mRunning = true;
+
+	DecodeThread(Context context, ClipCache cache, AudioMixer mixer, IListener listener) {
+	    super(DECODER_THREAD_NAME);
+	    mContext = context;
+	    mCache = cache;
+	    mMixer = mixer;
+	    mListener = listener;
+	}
+
+	void request(SoundPack.Clip clip, boolean play) {
+	    mRequests.offer(new Request(clip, play));
+	}
+
+	void requestNotify() {
+	    mRequests.offer(new Request(null, false));
+	}
+
+	void quit() {
+	    mRunning = false;
+	    interrupt();
+	}
+
+	@Override
+	public void run() {
+	    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+	    final ClipDecoder decoder = new ClipDecoder();
+	    try {
+		while (mRunning) {
+		    final Request request = mRequests.take();
+		    if (request.clip == null) {
+			if (mListener != null && mRunning) {
+			    mListener.onLoaded();
+			}
+			continue;
+		    }
+		    PcmClip pcm = mCache.contains(request.clip.key) ? mCache.get(request.clip.key) : null;
+		    if (pcm == null && !mFailed.contains(request.clip.key)) {
+			pcm = decode(decoder, request.clip);
+		    }
+		    if (pcm != null && request.play && mRunning) {
+			mMixer.play(pcm.samples, pcm.sampleRate);
+		    }
+		}
+	    } catch (InterruptedException e) {
+		// released
+	    }
+	}
+
+	private PcmClip decode(ClipDecoder decoder, SoundPack.Clip clip) {
+	    try {
+		final PcmClip pcm = decoder.decode(mContext, clip);
+		if (mCache.put(clip.key, pcm)) {
+		    return pcm;
+		}
+		Log.w(LOG_TAG, clip.key + " takes " + pcm.getSizeBytes() + " bytes, more than the clip budget of "
+			+ mCache.getBudgetBytes() + ", it won't be played");
+		mFailed.add(clip.key);
+		return null;
+	    } catch (IOException e) {
+		Log.e(LOG_TAG, "Failed to decode " + clip.key, e);
+	    } catch (RuntimeException e) {
+		Log.e(LOG_TAG, "Failed to decode " + clip.key, e);
+	    }
+	    mFailed.add(clip.key);
+	    return null;
+	}
+    }
+}
@@ -0,0 +1,19 @@
+package com.tartakynov.robotnoise.audio;
+
+/**
+ * @author Artem Tartakynov
+ * Decoded mono 16-bit clip
+ */
+public final class PcmClip {
+    public final short[] samples;
+    public final int sampleRate;
+
+    public PcmClip(short[] samples, int sampleRate) {
+	this.samples = samples;
+	this.sampleRate = sampleRate;
+    }
+
+    public int getSizeBytes() {
+	return samples.length * 2;
+    }
+}
@@ -0,0 +1,118 @@
+package com.tartakynov.robotnoise.audio;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Artem Tartakynov
+ * Set of clips for every sound, e.g. for every leg movement. A sound may have several clips, engines
+ * play them in turns. Clips are either raw resources or audio files in the app storage, nothing is loaded
+ * until an engine needs the clip
+ */
+public final class SoundPack {
+
+    /**
+     * @author Artem Tartakynov
+     * Location of a single clip
+     */
+    public static final class Clip {
+	public final int resource; // 0 for files
+	public final File file; // null for resources
+	public final String key; // identifies the clip in caches
+
+	private Clip(int resource, File file) {
+	    this.resource = resource;
+	    this.file = file;
+	    this.key = (file == null) ? "res:" + resource : file.getAbsolutePath();
+	}
+    }
+
+    private final String mName;
+    private final ArrayList<ArrayList<Clip>> mSounds;
+
+    /**
+     * Creates empty pack
+     * @param sounds number of sounds
+     */
+    public SoundPack(String name, int sounds) {
+	mName = name;
+	mSounds = new ArrayList<ArrayList<Clip>>(sounds);
+	for (int i = 0; i < sounds; i++) {
+	    mSounds.add(new ArrayList<Clip>());
+	}
+    }
+
+    /**
+     * Creates pack of raw resources with one clip per sound
+     */
+    public static SoundPack fromResources(String name, int[] resources) {
+	final SoundPack pack = new SoundPack(name, resources.length);
+	for (int i = 0; i < resources.length; i++) {
+	    pack.addResource(i, resources[i]);
+	}
+	return pack;
+    }
+
+    /**
+     * Creates pack of audio files in the directory, files of every sound start with its prefix,
+     * e.g. forward1.mp3 and forward2.ogg. Files are taken in alphabetical order
+     */
+    public static SoundPack fromDirectory(File directory, String[] prefixes) {
+	final SoundPack pack = new SoundPack(directory.getName(), prefixes.length);
+	final File[] files = directory.listFiles();
+	if (files == null) {
+	    return pack;
+	}
+	Arrays.sort(files);
+	for (File file : files) {
+	    for (int i = 0; i < prefixes.length; i++) {
+		if (file.isFile() && file.getName().startsWith(prefixes[i])) {
+		    pack.addFile(i, file);
+		    break;
+		}
+	    }
+	}
+	return pack;
+    }
+
+    /********************* Public methods ******************************/
+
+    public SoundPack addResource(int sound, int resource) {
+	mSounds.get(sound).add(new Clip(resource, null));
+	return this;
+    }
+
+    public SoundPack addFile(int sound, File file) {
+	mSounds.get(sound).add(new Clip(0, file));
+	return this;
+    }
+
+    public String getName() {
+	return mName;
+    }
+
+    public int getSoundCount() {
+	return mSounds.size();
+    }
+
+    public int getClipCount(int sound) {
+	return mSounds.get(sound).size();
+    }
+
+    public Clip getClip(int sound, int index) {
+	return mSounds.get(sound).get(index);
+    }
+
+    /**
+     * True if every sound has at least one clip
+     */
+    public boolean isComplete() {
+	for (ArrayList<Clip> clips : mSounds) {
+	    if (clips.isEmpty()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+}
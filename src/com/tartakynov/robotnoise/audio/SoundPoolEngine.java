@@ -0,0 +1,117 @@
+package com.tartakynov.robotnoise.audio;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.media.SoundPool.OnLoadCompleteListener;
+
+/**
+ * @author Artem Tartakynov
+ * Playback engine which keeps clips decoded in memory by SoundPool, so starting a sound doesn't involve the decoder
+ * and a new step can start while the previous one is still playing.
+ * SoundPool reports loaded clips on the main looper when the loading thread has none, not on the thread which
+ * plays, and the report may arrive while load() is still assigning the ids. All methods hold the engine's lock
+ */
+public class SoundPoolEngine implements IPlaybackEngine, OnLoadCompleteListener {
+    private static final int MAX_STREAMS 	= 4;
+    private static final int PRIORITY 		= 1;
+    private static final float RATE_NORMAL 	= 1.0f;
+
+    private SoundPool mPool;
+    private int[] mSoundIds; // ids of all clips in the pool
+    private boolean[] mLoaded;
+    private int mCompleted; // clips which finished loading, failed ones included
+    private int[] mFirstClip; // index of the first clip of every sound
+    private int[] mClipCount;
+    private int[] mNextClip;
+    private float mVolume = 1.0f;
+    private IListener mListener;
+
+    /********************* IPlaybackEngine *****************************/
+
+    @Override
+    public void load(Context context, SoundPack pack) {
+	final boolean empty;
+	synchronized (this) {
+	    release();
+	    mPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+	    mPool.setOnLoadCompleteListener(this);
+	    final int sounds = pack.getSoundCount();
+	    mFirstClip = new int[sounds];
+	    mClipCount = new int[sounds];
+	    mNextClip = new int[sounds];
+	    int clips = 0;
+	    for (int i = 0; i < sounds; i++) {
+		mFirstClip[i] = clips;
+		mClipCount[i] = pack.getClipCount(i);
+		clips += mClipCount[i];
+	    }
+	    mSoundIds = new int[clips];
+	    mLoaded = new boolean[clips];
+	    mCompleted = 0;
+	    for (int sound = 0; sound < sounds; sound++) {
+		for (int i = 0; i < mClipCount[sound]; i++) {
+		    final SoundPack.Clip clip = pack.getClip(sound, i);
+		    mSoundIds[mFirstClip[sound] + i] = (clip.file != null)
+			    ? mPool.load(clip.file.getAbsolutePath(), PRIORITY) : mPool.load(context, clip.resource, PRIORITY);
+		}
+	    }
+	    empty = (clips == 0);
+	}
+	if (empty && mListener != null) {
+	    mListener.onLoaded();
+	}
+    }
+
+    @Override
+    public void setListener(IListener listener) {
+	mListener = listener;
+    }
+
+    @Override
+    public synchronized void play(int sound) {
+	if (mPool == null || sound >= mClipCount.length || mClipCount[sound] == 0) {
+	    return;
+	}
+	final int clip = mFirstClip[sound] + mNextClip[sound];
+	mNextClip[sound] = (mNextClip[sound] + 1) % mClipCount[sound];
+	if (mLoaded[clip]) {
+	    mPool.play(mSoundIds[clip], mVolume, mVolume, PRIORITY, 0, RATE_NORMAL);
+	}
+    }
+
+    @Override
+    public synchronized void setVolume(float volume) {
+	mVolume = volume;
+    }
+
+    @Override
+    public synchronized void release() {
+	if (mPool != null) {
+	    mPool.release();
+	    mPool = null;
+	}
+    }
+
+    /********************* OnLoadCompleteListener **********************/
+
+    @Override
+    public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+	synchronized (this) {
+	    if (pool != mPool) {
+		return;
+	    }
+	    for (int i = 0; i < mSoundIds.length; i++) {
+		if (mSoundIds[i] == sampleId) {
+		    mLoaded[i] = (status == 0);
+		}
+	    }
+	    if (++mCompleted < mSoundIds.length) {
+		return;
+	    }
+	}
+	if (mListener != null) {
+	    mListener.onLoaded();
+	}
+    }
+}
@@ -0,0 +1,114 @@
+package com.tartakynov.robotnoise.audio;
+
+/**
+ * @author Artem Tartakynov
+ * Carries volume from the dial to the player while the user drags it. Values are sent at most once per interval,
+ * the ones set in between are coalesced into the latest, and a value equal to the last sent one isn't sent again.
+ * Doesn't depend on Android, time and delivery are provided by the host. Isn't thread-safe, use it from one thread
+ */
+public final class VolumeChannel {
+    public static final long DEFAULT_INTERVAL_MILLIS = 20; // a few mixer blocks, the mixer ramps in between
+
+    /**
+     * Implemented by the owner of the channel
+     */
+    public interface IHost {
+	/**
+	 * Delivers volume to the player
+	 */
+	void send(float volume);
+
+	/**
+	 * Requests onScheduled() after delay, a pending request is replaced
+	 */
+	void schedule(long delayMillis);
+    }
+
+    private final IHost mHost;
+    private final long mIntervalMillis;
+    private float mPending;
+    private boolean mHasPending = false;
+    private boolean mIsScheduled = false;
+    private float mSent = Float.NaN;
+    private long mSentAt;
+    private int mSentCount = 0;
+    private int mCoalescedCount = 0;
+
+    public VolumeChannel(IHost host, long intervalMillis) {
+	mHost = host;
+	mIntervalMillis = intervalMillis;
+	mSentAt = -intervalMillis;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Sets the latest volume, it's sent now or when the interval since the previous send expires
+     */
+    public void set(float volume, long nowMillis) {
+	if (mHasPending) {
+	    mCoalescedCount++;
+	}
+	mPending = volume;
+	mHasPending = true;
+	if (mIsScheduled) {
+	    return;
+	}
+	final long wait = mSentAt + mIntervalMillis - nowMillis;
+	if (wait <= 0) {
+	    send(nowMillis);
+	} else {
+	    mIsScheduled = true;
+	    mHost.schedule(wait);
+	}
+    }
+
+    /**
+     * Sends the pending volume at once, e.g. when the user releases the dial
+     */
+    public void flush(long nowMillis) {
+	if (mHasPending) {
+	    send(nowMillis);
+	}
+    }
+
+    /**
+     * Called by the host when the requested delay expires
+     */
+    public void onScheduled(long nowMillis) {
+	mIsScheduled = false;
+	if (mHasPending) {
+	    send(nowMillis);
+	}
+    }
+
+    /**
+     * Forgets the last sent volume, so the next one is sent even if it's the same, e.g. after the player has been recreated
+     */
+    public void reset() {
+	mSent = Float.NaN;
+    }
+
+    public int getSentCount() {
+	return mSentCount;
+    }
+
+    /**
+     * Number of values replaced by a newer one before they were sent
+     */
+    public int getCoalescedCount() {
+	return mCoalescedCount;
+    }
+
+    /********************* Private methods *****************************/
+
+    private void send(long nowMillis) {
+	mHasPending = false;
+	if (mPending != mSent) {
+	    mSent = mPending;
+	    mSentAt = nowMillis;
+	    mSentCount++;
+	    mHost.send(mPending);
+	}
+    }
+}
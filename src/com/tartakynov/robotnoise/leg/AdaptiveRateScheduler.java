@@ -0,0 +1,90 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Chooses accelerometer sampling rate by the detected activity. When the leg stays still for a while
+ * the sensor is slowed down, a rising amplitude brings the fast rate back at once. The fast rate is kept for at least
+ * a minimal dwell time before slowing down, so the listener isn't re-registered back and forth, but nothing delays
+ * speeding up, the first steps of a walk mustn't be missed
+ */
+public final class AdaptiveRateScheduler {
+    public static final long DEFAULT_MIN_DWELL_NANOS = 2000000000L; // 2s
+
+    private final int mFastRateUs;
+    private final int mSlowRateUs;
+    private final int mIdleSamples;
+    private final float mWakeAmplitude;
+    private final long mMinDwellNanos;
+    private boolean mFast = true;
+    private long mSwitchedAt = Long.MIN_VALUE;
+    private int mSwitches = 0;
+
+    /**
+     * @param fastRateUs rate used while the leg moves
+     * @param slowRateUs rate used while the user stands still
+     * @param idleSamples number of consecutive samples without movement before slowing down
+     * @param wakeAmplitude amplitude of filtered signal which brings the fast rate back, it should be below
+     * the detection threshold, so the rate is fast by the time a step is detected
+     * @param minDwellNanos minimal time at the fast rate before slowing down
+     */
+    public AdaptiveRateScheduler(int fastRateUs, int slowRateUs, int idleSamples, float wakeAmplitude, long minDwellNanos) {
+	mFastRateUs = fastRateUs;
+	mSlowRateUs = slowRateUs;
+	mIdleSamples = idleSamples;
+	mWakeAmplitude = wakeAmplitude;
+	mMinDwellNanos = minDwellNanos;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Goes back to the fast rate, call it when the sensor is registered again
+     */
+    public void reset() {
+	mFast = true;
+	mSwitchedAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * Updates the state by the last processed samples, returns true if the rate has changed
+     * @param timestampNanos timestamp of the last sample
+     * @param inactivityCount number of consecutive samples without movement
+     * @param peakAmplitude the biggest change of filtered signal since the rate was slowed down,
+     * it's evaluated only at the slow rate
+     */
+    public boolean update(long timestampNanos, int inactivityCount, float peakAmplitude) {
+	if (mSwitchedAt == Long.MIN_VALUE) {
+	    mSwitchedAt = timestampNanos; // the dwell time starts with the first sample
+	    return false;
+	}
+	if (mFast) {
+	    if (timestampNanos - mSwitchedAt < mMinDwellNanos || inactivityCount < mIdleSamples) {
+		return false;
+	    }
+	} else if (peakAmplitude < mWakeAmplitude) {
+	    return false;
+	}
+	mFast = !mFast;
+	mSwitchedAt = timestampNanos;
+	mSwitches++;
+	return true;
+    }
+
+    /**
+     * Rate which should be used now, in microseconds
+     */
+    public int getRateUs() {
+	return mFast ? mFastRateUs : mSlowRateUs;
+    }
+
+    public boolean isFast() {
+	return mFast;
+    }
+
+    /**
+     * Number of rate switches since creation
+     */
+    public int getSwitchCount() {
+	return mSwitches;
+    }
+}
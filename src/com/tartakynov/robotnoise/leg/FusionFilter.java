@@ -0,0 +1,87 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Kalman filter of the gravity vector in the phone's frame, the same scalar model as ScalarKalmanFilter
+ * shared by three axes, but the prediction step rotates the previous estimate by the gyroscope instead of
+ * keeping it. The measurement is the accelerometer minus linear acceleration, so steps and bumps barely move
+ * the estimate while the thigh swing shows up without the lag of the accelerometer-only cascade.
+ * Doesn't allocate and isn't thread-safe
+ */
+public final class FusionFilter {
+    public static final float DEFAULT_Q 	= 10.0f; // gyroscope noise of a swinging thigh
+    public static final float DEFAULT_R 	= 1.0f;
+
+    private static final long NO_SAMPLE 	= Long.MIN_VALUE;
+    private static final float MAX_STEP 	= 0.5f; // s, longer gaps aren't predicted by the gyroscope
+
+    private final float mQ; // gyroscope noise, per second
+    private final float mR; // measurement noise
+    private float mX;
+    private float mY;
+    private float mZ;
+    private float mCovariance;
+    private long mLastTimestamp = NO_SAMPLE;
+
+    public FusionFilter(float q, float r) {
+	mQ = q;
+	mR = r;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Forgets the estimate, the next sample starts a new one
+     */
+    public void init() {
+	mLastTimestamp = NO_SAMPLE;
+    }
+
+    /**
+     * Updates the estimate by time-aligned samples
+     * @param values accelerometer X, Y, Z, gyroscope X, Y, Z in rad/s and linear acceleration X, Y, Z,
+     * the layout of SampleAligner with two secondary sensors
+     */
+    public void correct(long timestampNanos, float[] values) {
+	final float mx = values[0] - values[6];
+	final float my = values[1] - values[7];
+	final float mz = values[2] - values[8];
+	if (mLastTimestamp == NO_SAMPLE) {
+	    mX = mx;
+	    mY = my;
+	    mZ = mz;
+	    mCovariance = mR;
+	    mLastTimestamp = timestampNanos;
+	    return;
+	}
+	// time update - rotate by the gyroscope, gravity turns opposite to the phone
+	final float dt = Math.min(MAX_STEP, Math.max(0, (timestampNanos - mLastTimestamp) / 1e9f));
+	mLastTimestamp = timestampNanos;
+	final float wx = values[3] * dt;
+	final float wy = values[4] * dt;
+	final float wz = values[5] * dt;
+	final float x = mX + mY * wz - mZ * wy;
+	final float y = mY + mZ * wx - mX * wz;
+	final float z = mZ + mX * wy - mY * wx;
+	final float p0 = mCovariance + mQ * dt;
+
+	// measurement update - correction
+	final float k = p0 / (p0 + mR);
+	mCovariance = (1 - k) * p0;
+	mX = x + k * (mx - x);
+	mY = y + k * (my - y);
+	mZ = z + k * (mz - z);
+    }
+
+    public float getX() {
+	return mX;
+    }
+
+    public float getY() {
+	return mY;
+    }
+
+    public float getZ() {
+	return mZ;
+    }
+}
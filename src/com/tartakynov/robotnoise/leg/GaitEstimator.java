@@ -0,0 +1,173 @@
+package com.tartakynov.robotnoise.leg;
+
+import com.tartakynov.robotnoise.util.ListenerRegistry;
+
+/**
+ * @author Artem Tartakynov
+ * Estimates cadence, stride period and regularity from the strides detected by LegMovementEngine.
+ * The phone lies in one pocket, so every forward swing of that leg is one stride of two steps.
+ * Durations of the last strides are kept in a fixed ring together with their running sums,
+ * so every update costs the same and nothing is allocated. A stride which is roughly a multiple of
+ * the current mean is taken as several strides with missed swings in between.
+ * Not thread-safe, it's updated from the engine's thread. Listeners may be added and removed from any thread
+ */
+public final class GaitEstimator {
+    public static final int	WINDOW_STRIDES		= 8;
+    public static final long	MIN_STRIDE_NANOS	= 600000000L; // 200 steps per minute
+    public static final long	MAX_STRIDE_NANOS	= 2500000000L; // 48 steps per minute
+
+    private static final int	MIN_STRIDES		= 3; // strides needed before the first estimate
+    private static final int	MAX_MISSED_STRIDES	= 2;
+    private static final float	STRIDE_TOLERANCE	= 0.25f; // of the mean stride, used for missed strides
+
+    private final ListenerRegistry<IGaitListener> mListeners = new ListenerRegistry<IGaitListener>(IGaitListener.class);
+    private final long[] mStrides = new long[WINDOW_STRIDES]; // durations in microseconds
+    private int mHead = 0; // index of the oldest stride
+    private int mCount = 0;
+    private long mSum = 0;
+    private long mSumSquares = 0;
+    private long mLastStrideAt = Long.MIN_VALUE;
+
+    /********************* Public methods ******************************/
+
+    public void addListener(IGaitListener listener) {
+	mListeners.add(listener);
+    }
+
+    public void removeListener(IGaitListener listener) {
+	mListeners.remove(listener);
+    }
+
+    /**
+     * Updates the estimate by a processed sample, call it for every sample
+     * @param stride true if the leg has started to swing forward at this sample
+     */
+    public void update(long timestampNanos, boolean stride) {
+	if (stride) {
+	    onStride(timestampNanos);
+	} else if (mLastStrideAt != Long.MIN_VALUE && timestampNanos - mLastStrideAt > getTimeoutNanos()) {
+	    final boolean walking = isWalking();
+	    reset();
+	    if (walking) {
+		notifyListeners(timestampNanos);
+	    }
+	}
+    }
+
+    /**
+     * Forgets all strides
+     */
+    public void reset() {
+	mHead = 0;
+	mCount = 0;
+	mSum = 0;
+	mSumSquares = 0;
+	mLastStrideAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * True if there are enough strides for the estimate
+     */
+    public boolean isWalking() {
+	return mCount >= MIN_STRIDES;
+    }
+
+    /**
+     * Steps per minute, 0 if the user doesn't walk
+     */
+    public float getCadence() {
+	return isWalking() ? 120e6f * mCount / mSum : 0;
+    }
+
+    /**
+     * Mean duration of a stride, 0 if the user doesn't walk
+     */
+    public long getStridePeriodNanos() {
+	return isWalking() ? mSum * 1000 / mCount : 0;
+    }
+
+    /**
+     * 1 minus coefficient of variation of the stride durations, 0 if the user doesn't walk
+     */
+    public float getRegularity() {
+	if (!isWalking()) {
+	    return 0;
+	}
+	final double mean = (double) mSum / mCount;
+	final double variance = Math.max(0, (double) mSumSquares / mCount - mean * mean);
+	return (float) Math.max(0, 1 - Math.sqrt(variance) / mean);
+    }
+
+    /********************* Private methods *****************************/
+
+    private void onStride(long timestampNanos) {
+	if (mLastStrideAt == Long.MIN_VALUE) {
+	    mLastStrideAt = timestampNanos;
+	    return;
+	}
+	final long duration = timestampNanos - mLastStrideAt;
+	if (duration < MIN_STRIDE_NANOS) {
+	    return; // a twitch within the stride
+	}
+	mLastStrideAt = timestampNanos;
+	int strides = 1;
+	if (isWalking()) {
+	    final long mean = mSum * 1000 / mCount;
+	    final int multiple = (int) ((duration + mean / 2) / mean);
+	    if (multiple > 1 && multiple <= MAX_MISSED_STRIDES + 1
+		    && Math.abs(duration - multiple * mean) < STRIDE_TOLERANCE * mean) {
+		strides = multiple;
+	    }
+	}
+	if (duration / strides > MAX_STRIDE_NANOS) {
+	    final boolean walking = isWalking();
+	    reset();
+	    mLastStrideAt = timestampNanos; // the user starts walking again
+	    if (walking) {
+		notifyListeners(timestampNanos);
+	    }
+	    return;
+	}
+	final long stride = duration / strides / 1000;
+	for (int i = 0; i < strides; i++) {
+	    add(stride);
+	}
+	if (isWalking()) {
+	    notifyListeners(timestampNanos);
+	}
+    }
+
+    private void add(long stride) {
+	if (mCount == WINDOW_STRIDES) {
+	    final long oldest = mStrides[mHead];
+	    mSum -= oldest;
+	    mSumSquares -= oldest * oldest;
+	    mStrides[mHead] = stride;
+	    mHead = (mHead + 1) % WINDOW_STRIDES;
+	} else {
+	    mStrides[(mHead + mCount) % WINDOW_STRIDES] = stride;
+	    mCount++;
+	}
+	mSum += stride;
+	mSumSquares += stride * stride;
+    }
+
+    /**
+     * Time without strides after which the user is considered standing still
+     */
+    private long getTimeoutNanos() {
+	if (!isWalking()) {
+	    return MAX_STRIDE_NANOS;
+	}
+	return (long) (getStridePeriodNanos() * (MAX_MISSED_STRIDES + 1 + STRIDE_TOLERANCE));
+    }
+
+    private void notifyListeners(long timestampNanos) {
+	final float cadence = getCadence();
+	final long period = getStridePeriodNanos();
+	final float regularity = getRegularity();
+	for (IGaitListener listener : mListeners.snapshot()) {
+	    listener.onGaitChanged(cadence, period, regularity, timestampNanos);
+	}
+    }
+}
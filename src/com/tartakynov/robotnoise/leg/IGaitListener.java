@@ -0,0 +1,16 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Used for receiving gait updates from the GaitEstimator
+ */
+public interface IGaitListener {
+    /**
+     * Called after every detected stride and once when the user stops walking, then cadence is 0
+     * @param cadence steps per minute
+     * @param stridePeriodNanos mean duration of a stride (two steps)
+     * @param regularity 1 for perfectly even strides, goes down to 0 as the stride durations spread
+     * @param timestampNanos sensor timestamp of the sample which caused the update
+     */
+    void onGaitChanged(float cadence, long stridePeriodNanos, float regularity, long timestampNanos);
+}
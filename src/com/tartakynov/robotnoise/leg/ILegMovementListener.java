@@ -0,0 +1,12 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Used for receiving notifications from the LegMovementDetector when leg state have changed
+ */
+public interface ILegMovementListener {
+    /**
+     * Called when leg state have changed, timestamp is the sensor timestamp of the sample which caused the change
+     */
+    void onLegActivity(int activity, long timestampNanos);
+}
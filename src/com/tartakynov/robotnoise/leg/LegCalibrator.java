@@ -0,0 +1,270 @@
+package com.tartakynov.robotnoise.leg;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Artem Tartakynov
+ * Tunes LegParameters by a recorded walk. The stride period is found by autocorrelation of the raw signal,
+ * it doesn't depend on the parameters. Then every candidate of a grid is replayed through its own LegMovementEngine
+ * and scored by the share of forward movements which are one stride apart. The grid is split between threads,
+ * the winner's amplitude threshold is moved to the middle of the range where the score stays the same,
+ * so the result tolerates a slightly softer or harder walk. Doesn't depend on android, runs on a desktop JVM as well
+ */
+public final class LegCalibrator {
+    public static final long	MIN_RECORDING_NANOS	= 10000000000L; // 10s
+    private static final float	MIN_PERIODICITY		= 0.3f; // autocorrelation of a walk at the stride period
+    private static final float	STRIDE_TOLERANCE	= 0.25f; // of the stride period
+    private static final float	EXTRA_PENALTY		= 0.5f; // cost of a wrong interval relative to a right one
+    private static final float	SCORE_EPSILON		= 1e-4f;
+    private static final float	THRESHOLD_STEP		= 0.05f; // of the final threshold search
+    private static final float	MIN_THRESHOLD		= 0.1f;
+    private static final float	MAX_THRESHOLD		= 4.0f;
+
+    private static final float[] GRID_THRESHOLDS	= { 0.3f, 0.45f, 0.6f, 0.8f, 1.0f, 1.25f, 1.5f, 2.0f, 2.5f };
+    private static final int[] 	 GRID_INACTIVITY	= { 4, 7, 10, 15, 20 };
+    private static final float[] GRID_Q			= { 0.0025f, 0.005f, 0.01f, 0.02f, 0.04f };
+    private static final float[] GRID_R			= { 0.001f, 0.0025f, 0.005f, 0.01f };
+
+    /**
+     * Outcome of calibration
+     */
+    public static final class Result {
+	public final LegParameters parameters;
+	public final float score; // 1 if every stride of the walk is detected exactly once
+	public final long strideNanos;
+	public final int evaluated; // number of replays
+	public final long elapsedNanos;
+
+	Result(LegParameters parameters, float score, long strideNanos, int evaluated, long elapsedNanos) {
+	    this.parameters = parameters;
+	    this.score = score;
+	    this.strideNanos = strideNanos;
+	    this.evaluated = evaluated;
+	    this.elapsedNanos = elapsedNanos;
+	}
+    }
+
+    /**
+     * Counts intervals between forward movements which match the stride period
+     */
+    private static final class StrideCounter implements ILegMovementListener {
+	private final long mStride;
+	private long mLast = Long.MIN_VALUE;
+	int good = 0;
+	int bad = 0;
+
+	StrideCounter(long strideNanos) {
+	    mStride = strideNanos;
+	}
+
+	@Override
+	public void onLegActivity(int activity, long timestampNanos) {
+	    if (activity != LegMovementEngine.LEG_MOVEMENT_FORWARD) {
+		return;
+	    }
+	    if (mLast != Long.MIN_VALUE) {
+		if (Math.abs(timestampNanos - mLast - mStride) <= mStride * STRIDE_TOLERANCE) {
+		    good++;
+		} else {
+		    bad++;
+		}
+	    }
+	    mLast = timestampNanos;
+	}
+    }
+
+    private final int mThreads;
+
+    /**
+     * Creates calibrator which replays the grid on given number of threads
+     */
+    public LegCalibrator(int threads) {
+	mThreads = Math.max(1, threads);
+    }
+
+    public LegCalibrator() {
+	this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Finds the best parameters for the walk. Returns null if the recording is too short or doesn't look like a walk
+     */
+    public Result calibrate(final WalkRecording recording) throws InterruptedException {
+	final long start = System.nanoTime();
+	if (recording.getDurationNanos() < MIN_RECORDING_NANOS) {
+	    return null;
+	}
+	final long stride = estimateStride(recording);
+	if (stride == 0) {
+	    return null;
+	}
+
+	final LegParameters[] grid = createGrid();
+	final float[] scores = new float[grid.length];
+	final ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+	try {
+	    final ArrayList<Future<?>> futures = new ArrayList<Future<?>>(mThreads);
+	    for (int t = 0; t < mThreads; t++) {
+		final int first = t;
+		futures.add(executor.submit(new Runnable() {
+		    @Override
+		    public void run() {
+			for (int i = first; i < grid.length; i += mThreads) {
+			    scores[i] = score(grid[i], recording, stride);
+			}
+		    }
+		}));
+	    }
+	    for (Future<?> future : futures) {
+		future.get();
+	    }
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    executor.shutdownNow();
+	}
+
+	int best = 0;
+	for (int i = 1; i < grid.length; i++) {
+	    if (scores[i] > scores[best] + SCORE_EPSILON
+		    || (scores[i] > scores[best] - SCORE_EPSILON && distance(grid[i]) < distance(grid[best]))) {
+		best = i;
+	    }
+	}
+	int evaluated = grid.length;
+
+	// the middle of the threshold range which keeps the best score
+	final LegParameters winner = grid[best];
+	final float bestScore = scores[best];
+	float low = winner.amplitudeThreshold;
+	float high = winner.amplitudeThreshold;
+	while (low - THRESHOLD_STEP >= MIN_THRESHOLD) {
+	    evaluated++;
+	    if (score(winner.withAmplitudeThreshold(low - THRESHOLD_STEP), recording, stride) < bestScore - SCORE_EPSILON) {
+		break;
+	    }
+	    low -= THRESHOLD_STEP;
+	}
+	while (high + THRESHOLD_STEP <= MAX_THRESHOLD) {
+	    evaluated++;
+	    if (score(winner.withAmplitudeThreshold(high + THRESHOLD_STEP), recording, stride) < bestScore - SCORE_EPSILON) {
+		break;
+	    }
+	    high += THRESHOLD_STEP;
+	}
+	final LegParameters parameters = winner.withAmplitudeThreshold((low + high) / 2);
+	return new Result(parameters, score(parameters, recording, stride), stride, evaluated + 1, System.nanoTime() - start);
+    }
+
+    /**
+     * Replays the recording with given parameters. Returns share of expected strides which were detected
+     * one stride after the previous one, wrong intervals are subtracted
+     */
+    public static float score(LegParameters parameters, WalkRecording recording, long strideNanos) {
+	final LegMovementEngine engine = new LegMovementEngine(LegMovementEngine.AXIS_AUTO, parameters);
+	final StrideCounter counter = new StrideCounter(strideNanos);
+	engine.addListener(counter);
+	engine.process(recording.getTimestamps(), recording.getX(), recording.getY(), recording.getZ(), 0, recording.getLength());
+	final float expected = Math.max(1, (float) recording.getDurationNanos() / strideNanos - 1);
+	return (counter.good - EXTRA_PENALTY * counter.bad) / expected;
+    }
+
+    /**
+     * Finds the stride period as the lag with the highest autocorrelation of the raw samples.
+     * Returns 0 if the signal isn't periodic enough to be a walk
+     */
+    public static long estimateStride(WalkRecording recording) {
+	final int n = recording.getLength();
+	if (n < 2) {
+	    return 0;
+	}
+	final double dt = (double) recording.getDurationNanos() / (n - 1);
+	final int minLag = (int) Math.ceil(GaitEstimator.MIN_STRIDE_NANOS / dt);
+	final int maxLag = Math.min(n / 2, (int) (GaitEstimator.MAX_STRIDE_NANOS / dt));
+	if (minLag < 1 || maxLag <= minLag) {
+	    return 0;
+	}
+	final float[] x = center(recording.getX(), n);
+	final float[] y = center(recording.getY(), n);
+	final float[] z = center(recording.getZ(), n);
+	final double energy = correlation(x, y, z, n, 0);
+	if (energy == 0) {
+	    return 0;
+	}
+	final double[] r = new double[maxLag + 2];
+	int best = minLag;
+	for (int lag = minLag - 1; lag <= maxLag + 1 && lag < n; lag++) {
+	    r[lag] = correlation(x, y, z, n, lag) / energy;
+	    if (lag >= minLag && lag <= maxLag && r[lag] > r[best]) {
+		best = lag;
+	    }
+	}
+	if (r[best] < MIN_PERIODICITY) {
+	    return 0;
+	}
+	// parabolic interpolation between neighbouring lags
+	final double denominator = r[best - 1] - 2 * r[best] + r[best + 1];
+	final double shift = denominator < 0 ? 0.5 * (r[best - 1] - r[best + 1]) / denominator : 0;
+	return (long) ((best + shift) * dt);
+    }
+
+    /********************* Private methods *****************************/
+
+    private static LegParameters[] createGrid() {
+	final LegParameters[] grid = new LegParameters[GRID_THRESHOLDS.length * GRID_INACTIVITY.length * GRID_Q.length * GRID_R.length];
+	int i = 0;
+	for (float threshold : GRID_THRESHOLDS) {
+	    for (int inactivity : GRID_INACTIVITY) {
+		for (float q : GRID_Q) {
+		    for (float r : GRID_R) {
+			grid[i++] = new LegParameters(threshold, inactivity, q, r);
+		    }
+		}
+	    }
+	}
+	return grid;
+    }
+
+    /**
+     * How far the parameters are from the defaults, used to break ties
+     */
+    private static double distance(LegParameters p) {
+	final LegParameters d = LegParameters.DEFAULT;
+	return Math.abs(Math.log(p.amplitudeThreshold / d.amplitudeThreshold))
+		+ Math.abs(Math.log((float) p.inactivityThreshold / d.inactivityThreshold))
+		+ Math.abs(Math.log(p.q / d.q)) + Math.abs(Math.log(p.r / d.r));
+    }
+
+    /**
+     * Copy of the first n values without their mean
+     */
+    private static float[] center(float[] values, int n) {
+	double sum = 0;
+	for (int i = 0; i < n; i++) {
+	    sum += values[i];
+	}
+	final float mean = (float) (sum / n);
+	final float[] centered = new float[n];
+	for (int i = 0; i < n; i++) {
+	    centered[i] = values[i] - mean;
+	}
+	return centered;
+    }
+
+    /**
+     * Biased autocorrelation of the 3-axis signal, it decays with the lag so the first period wins over its multiples
+     */
+    private static double correlation(float[] x, float[] y, float[] z, int n, int lag) {
+	double sum = 0;
+	for (int i = lag; i < n; i++) {
+	    sum += x[i] * x[i - lag] + y[i] * y[i - lag] + z[i] * z[i - lag];
+	}
+	return sum / n;
+    }
+}
@@ -1,53 +1,93 @@
 package com.tartakynov.robotnoise.leg;
 
-import java.util.ArrayList;
+import java.io.IOException;
+
+import com.tartakynov.robotnoise.trace.TraceWriter;
+import com.tartakynov.robotnoise.util.LatencyTracker;
+import com.tartakynov.robotnoise.util.Logger;
+import com.tartakynov.robotnoise.util.SensorClock;
 
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * @author Artem Tartakynov
- * Detects your leg's movement when the phone is in pocket
+ * Detects your leg's movement when the phone is in pocket.
+ * Registers the accelerometer and feeds its samples to LegMovementEngine which does the actual detection.
+ * In the fusion mode the gyroscope and linear acceleration are registered too, the samples are aligned in time
+ * and the gravity estimated by FusionFilter is detected instead of the accelerometer cascade
  */
 public class LegMovementDetector implements SensorEventListener {
 
-    /**
-     * @author Artem Tartakynov
-     * Used for receiving notifications from the LegMovementDetector when leg state have changed
-     */
-    public interface ILegMovementListener {
-	/**
-	 * Called when leg state have changed
-	 */
-	void onLegActivity(int activity);
-    }
-
     protected static final String 	LOG_TAG 		= "LegMovementDetector";
-    protected static final float 	LEG_THRSHOLD_AMPLITUDE	= 1.0f;
-    protected static final int 		LEG_THRSHOLD_INACTIVITY	= 10;
-    protected static final int 		LEG_SENSOR_RATE		= 60000; //SensorManager.SENSOR_DELAY_UI;	
-    public static final int		LEG_MOVEMENT_NONE 	= 0;
-    public static final int 		LEG_MOVEMENT_FORWARD	= 1;
-    public static final int 		LEG_MOVEMENT_BACKWARD 	= 2;	
-
-    private final ArrayList<ILegMovementListener> mListeners = new ArrayList<ILegMovementListener>();	
+    protected static final Logger	LOG			= new Logger(LOG_TAG);
+    protected static final int 		LEG_SENSOR_RATE		= 60000; //SensorManager.SENSOR_DELAY_UI;
+    protected static final int 		LEG_SENSOR_RATE_IDLE	= 250000; // used while the user stands still
+    protected static final float	LEG_WAKE_RATIO		= 0.5f; // of the detection threshold, brings the fast rate back
+    protected static final int		LEG_BUFFER_SIZE		= 64; // must hold the biggest expected burst of batched samples
+    protected static final long		LEG_ALIGN_DELAY		= 200000000L; // ns an accelerometer sample waits for the other sensors
+    public static final int		LEG_MOVEMENT_NONE 	= LegMovementEngine.LEG_MOVEMENT_NONE;
+    public static final int 		LEG_MOVEMENT_FORWARD	= LegMovementEngine.LEG_MOVEMENT_FORWARD;
+    public static final int 		LEG_MOVEMENT_BACKWARD 	= LegMovementEngine.LEG_MOVEMENT_BACKWARD;
+
+    private final LegMovementEngine mEngine = new LegMovementEngine();
+    private AdaptiveRateScheduler mRateScheduler = createRateScheduler(LegParameters.DEFAULT);
     private SensorManager mSensorManager;
+    private Handler mHandler;
     private Sensor mAccelerometer;
-    private float mLastZ;
-    private int mLastActivity = LEG_MOVEMENT_NONE;
-    private int mInactivityCount = 0;
+    private Sensor mGyroscope;
+    private Sensor mLinearAcceleration;
+    private boolean mFusion = false;
+    private final FusionFilter mFusionFilter = new FusionFilter(FusionFilter.DEFAULT_Q, FusionFilter.DEFAULT_R);
+    private final SampleAligner mAligner;
+    private TraceWriter mRecorder;
+    private WalkRecording mCalibration;
+    private boolean mAdaptiveRate = true;
+    private boolean mIsRegistered = false;
+    private LatencyTracker mLatency;
+    private final SensorClock mClock = new SensorClock(sClockHost);
 
-    private ScalarKalmanFilter mFiltersCascade[] = new ScalarKalmanFilter[3];
+    private final int mBlockSize;
+    private final int mMaxReportLatencyUs;
+    private final SampleRingBuffer mSamples;
+    private final long[] mBlockTimestamps;
+    private final float[] mBlockX;
+    private final float[] mBlockY;
+    private final float[] mBlockZ;
 
     public LegMovementDetector(SensorManager sensorManager){
+	this(sensorManager, null, 1, 0);
+    }
+
+    /**
+     * Creates detector which receives sensor events on the handler's thread (main thread if handler is null)
+     * and processes samples in blocks of given size. A sample delivered within a sampling period is processed
+     * with the samples buffered before it without waiting for the block to fill, so blocks only gather bursts.
+     * If maxReportLatencyUs is positive then the accelerometer is registered with hardware batching (API 19+)
+     */
+    public LegMovementDetector(SensorManager sensorManager, Handler handler, int blockSize, int maxReportLatencyUs){
 	mSensorManager = sensorManager;
+	mHandler = handler;
 	mAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-	mFiltersCascade[0] = new ScalarKalmanFilter(1, 1, 0.01f, 0.0025f);
-	mFiltersCascade[1] = new ScalarKalmanFilter(1, 1, 0.01f, 0.0025f);
-	mFiltersCascade[2] = new ScalarKalmanFilter(1, 1, 0.01f, 0.0025f);
+	mGyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+	mLinearAcceleration = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+	mAligner = new SampleAligner(mAlignedListener, 2, LEG_BUFFER_SIZE, LEG_ALIGN_DELAY);
+	mBlockSize = Math.max(1, blockSize);
+	mMaxReportLatencyUs = maxReportLatencyUs;
+	mSamples = new SampleRingBuffer(Math.max(mBlockSize, LEG_BUFFER_SIZE));
+	mBlockTimestamps = new long[mSamples.capacity()];
+	mBlockX = new float[mSamples.capacity()];
+	mBlockY = new float[mSamples.capacity()];
+	mBlockZ = new float[mSamples.capacity()];
+	if (LOG.isDebugEnabled()) {
+	    mEngine.addListener(mLogListener);
+	}
     }
 
     /********************* Public methods ******************************/
@@ -56,77 +96,292 @@ public class LegMovementDetector implements SensorEventListener {
      * Starts detecting single leg movement
      */
     public void startDetector(){
-	mSensorManager.registerListener(this, mAccelerometer, LEG_SENSOR_RATE);
+	mRateScheduler.reset();
+	register(mRateScheduler.getRateUs());
     }
 
     /**
-     * Stops detecting leg movement
+     * Stops detecting leg movement, the buffered samples are processed. Samples waiting to be aligned
+     * with the other sensors in the fusion mode are dropped, they can't be aligned anymore
      */
     public void stopDetector(){
 	mSensorManager.unregisterListener(this);
+	mIsRegistered = false;
+	processBlock();
+	mAligner.clear();
+	mFusionFilter.init();
+    }
+
+    /**
+     * True between startDetector() and stopDetector()
+     */
+    public boolean isStarted(){
+	return mIsRegistered;
+    }
+
+    /**
+     * True if the device has the gyroscope and linear acceleration sensors
+     */
+    public boolean isFusionSupported(){
+	return mGyroscope != null && mLinearAcceleration != null;
+    }
+
+    /**
+     * Enables or disables the fusion mode, disabled by default. Returns false if the device doesn't support it.
+     * The mode is experimental: it isn't shown yet to find the same leg movements as the accelerometer
+     * on a recorded walk, see FusionBenchmark. Call it on the sensor thread only
+     */
+    public boolean setFusion(boolean enabled){
+	if (enabled && !isFusionSupported()) {
+	    return false;
+	}
+	if (enabled != mFusion) {
+	    mFusion = enabled;
+	    mAligner.clear();
+	    mFusionFilter.init();
+	    if (mIsRegistered) {
+		register(mRateScheduler.getRateUs());
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Sets tracker which receives delivery latency of sensor events
+     */
+    public void setLatencyTracker(LatencyTracker tracker){
+	mLatency = tracker;
+    }
+
+    /**
+     * Converts sensor timestamp to System.nanoTime() base
+     */
+    public long toSystemNanos(long sensorTimestamp){
+	return mClock.toSystemNanos(sensorTimestamp);
+    }
+
+    /**
+     * Enables or disables slowing the accelerometer down while there is no movement, enabled by default
+     */
+    public void setAdaptiveRate(boolean enabled){
+	mAdaptiveRate = enabled;
+	if (!enabled && mIsRegistered && !mRateScheduler.isFast()) {
+	    startDetector();
+	}
     }
 
     /**
      * Adds listener
      */
     public void addListener(ILegMovementListener listener){
-	mListeners.add(listener);
+	mEngine.addListener(listener);
+    }
+
+    /**
+     * Removes listener
+     */
+    public void removeListener(ILegMovementListener listener){
+	mEngine.removeListener(listener);
+    }
+
+    /**
+     * Adds listener of cadence and stride updates
+     */
+    public void addGaitListener(IGaitListener listener){
+	mEngine.addGaitListener(listener);
+    }
+
+    /**
+     * Removes listener of cadence and stride updates
+     */
+    public void removeGaitListener(IGaitListener listener){
+	mEngine.removeGaitListener(listener);
+    }
+
+    /**
+     * Switches the engine to other detection parameters, e.g. found by LegCalibrator. The accelerometer wakes up
+     * from the idle rate by the same amplitude threshold. Call it on the sensor thread only
+     */
+    public void setParameters(LegParameters parameters){
+	mEngine.setParameters(parameters);
+	mRateScheduler = createRateScheduler(parameters);
+	if (mIsRegistered) {
+	    register(mRateScheduler.getRateUs());
+	}
+    }
+
+    public LegParameters getParameters(){
+	return mEngine.getParameters();
+    }
+
+    /**
+     * Sets recording which receives raw accelerometer samples until it's full, null stops recording.
+     * Call it on the sensor thread only
+     */
+    public void setCalibrationRecording(WalkRecording recording){
+	mCalibration = recording;
+    }
+
+    /**
+     * Sets writer which receives raw accelerometer samples, null stops recording. Call it on the sensor thread only
+     */
+    public void setRecorder(TraceWriter recorder){
+	mRecorder = recorder;
     }
 
     /********************* SensorEventListener *************************/
 
     @Override
     public void onAccuracyChanged(Sensor sensor, int value) {
-	// TODO Auto-generated method stub				
+	// TODO Auto-generated method stub
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-	if (event.sensor.getType() != Sensor.TYPE_ACCELEROMETER){
+	final int type = event.sensor.getType();
+	if (type == Sensor.TYPE_GYROSCOPE || type == Sensor.TYPE_LINEAR_ACCELERATION) {
+	    if (mRecorder != null) {
+		record(type, event.timestamp, event.values);
+	    }
+	    if (mFusion) {
+		mAligner.putSecondary(type == Sensor.TYPE_GYROSCOPE ? 0 : 1, event.timestamp, event.values[0], event.values[1], event.values[2]);
+	    }
 	    return;
 	}
-	final float z = filter(event.values[2]);				
-	if (Math.abs(z - mLastZ) > LEG_THRSHOLD_AMPLITUDE)
-	{
-	    mInactivityCount = 0;
-	    int currentActivity = (z > mLastZ) ? LEG_MOVEMENT_FORWARD : LEG_MOVEMENT_BACKWARD;			
-	    if (currentActivity != mLastActivity){
-		mLastActivity = currentActivity;
-		notifyListeners(currentActivity);
-	    }			
-	} else {
-	    if (mInactivityCount > LEG_THRSHOLD_INACTIVITY) {
-		if (mLastActivity != LEG_MOVEMENT_NONE){
-		    mLastActivity = LEG_MOVEMENT_NONE;
-		    notifyListeners(LEG_MOVEMENT_NONE);					
-		}
-	    } else {
-		mInactivityCount++;
-	    }
+	if (type != Sensor.TYPE_ACCELEROMETER){
+	    return;
+	}
+	mClock.check(event.timestamp);
+	if (LatencyTracker.ENABLED && mLatency != null) {
+	    mLatency.record(LatencyTracker.STAGE_DELIVERY, System.nanoTime() - toSystemNanos(event.timestamp));
+	}
+	final float[] values = event.values;
+	if (mRecorder != null) {
+	    record(type, event.timestamp, values);
+	}
+	if (mCalibration != null) {
+	    mCalibration.add(event.timestamp, values[0], values[1], values[2]);
+	}
+	if (mFusion) {
+	    mAligner.putPrimary(event.timestamp, values[0], values[1], values[2]);
+	    return;
+	}
+	if (!mSamples.put(event.timestamp, values[0], values[1], values[2])) {
+	    processBlock();
+	    mSamples.put(event.timestamp, values[0], values[1], values[2]);
+	}
+	if (mSamples.size() >= mBlockSize || isLive(event.timestamp)) {
+	    processBlock();
 	}
-	mLastZ = z;
     }
-    
+
     /********************* Private methods *****************************/
 
     /**
-     * Smoothes the signal from accelerometer
+     * Runs all buffered samples through the detection engine
+     */
+    private void processBlock(){
+	final int count = mSamples.drain(mBlockTimestamps, mBlockX, mBlockY, mBlockZ);
+	mEngine.process(mBlockTimestamps, mBlockX, mBlockY, mBlockZ, 0, count);
+	if (count > 0) {
+	    updateRate(mBlockTimestamps[count - 1]);
+	}
+    }
+
+    /**
+     * True if the sample has been delivered within a sampling period, so it isn't a part of a batched burst
+     */
+    private boolean isLive(long timestamp){
+	return System.nanoTime() - toSystemNanos(timestamp) < mRateScheduler.getRateUs() * 1000L;
+    }
+
+    /**
+     * Lets the scheduler change the sensor rate by the samples processed since the previous call.
+     * The peak is kept until the scheduler evaluates it at the slow rate, and starts over when the rate is slowed down
      */
-    private float filter(float measurement){
-	float f1 = mFiltersCascade[0].correct(measurement);
-	float f2 = mFiltersCascade[1].correct(f1);
-	float f3 = mFiltersCascade[2].correct(f2);
-	return f3;
+    private void updateRate(long timestamp){
+	if (!mAdaptiveRate || !mIsRegistered) {
+	    return;
+	}
+	final boolean wasFast = mRateScheduler.isFast();
+	final boolean changed = mRateScheduler.update(timestamp, mEngine.getInactivityCount(), mEngine.getPeakAmplitude());
+	if (!wasFast || !mRateScheduler.isFast()) {
+	    mEngine.resetPeakAmplitude();
+	}
+	if (changed) {
+	    LOG.i("Sensor rate, us: ", mRateScheduler.getRateUs());
+	    register(mRateScheduler.getRateUs());
+	}
+    }
+
+    private static AdaptiveRateScheduler createRateScheduler(LegParameters parameters){
+	return new AdaptiveRateScheduler(LEG_SENSOR_RATE, LEG_SENSOR_RATE_IDLE, parameters.inactivityThreshold,
+		parameters.amplitudeThreshold * LEG_WAKE_RATIO, AdaptiveRateScheduler.DEFAULT_MIN_DWELL_NANOS);
     }
-    
+
     /**
-     * Calls registered event listeners
+     * Registers the accelerometer, and the fusion sensors in the fusion mode, with given rate
      */
-    private void notifyListeners(int activity){
-	if (activity == 0) return;
-	for (ILegMovementListener listener : mListeners){
-	    listener.onLegActivity(activity);
-	    Log.i(LOG_TAG, String.valueOf(activity));
-	}									
+    private void register(int rateUs){
+	if (mIsRegistered) {
+	    mSensorManager.unregisterListener(this);
+	}
+	register(mAccelerometer, rateUs);
+	if (mFusion) {
+	    register(mGyroscope, rateUs);
+	    register(mLinearAcceleration, rateUs);
+	}
+	mIsRegistered = true;
     }
+
+    private void register(Sensor sensor, int rateUs){
+	if (mMaxReportLatencyUs > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+	    mSensorManager.registerListener(this, sensor, rateUs, mMaxReportLatencyUs, mHandler);
+	} else {
+	    mSensorManager.registerListener(this, sensor, rateUs, mHandler);
+	}
+    }
+
+    private static final SensorClock.IHost sClockHost = new SensorClock.IHost() {
+	@Override
+	public long elapsedRealtimeNanos() {
+	    return (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) ? SystemClock.elapsedRealtimeNanos() : Long.MIN_VALUE;
+	}
+
+	@Override
+	public long nanoTime() {
+	    return System.nanoTime();
+	}
+    };
+
+    /**
+     * Writes sample to the trace, trace sensor types are the same as Sensor.TYPE_*. Recording is stopped on error
+     */
+    private void record(int sensorType, long timestamp, float[] values){
+	try {
+	    mRecorder.write(sensorType, timestamp, values[0], values[1], values[2]);
+	} catch (IOException e) {
+	    Log.e(LOG_TAG, "Failed to record sample of sensor " + sensorType, e);
+	    mRecorder = null;
+	}
+    }
+
+    /**
+     * Detects leg movement by the gravity estimated from time-aligned samples
+     */
+    private final SampleAligner.IListener mAlignedListener = new SampleAligner.IListener() {
+	@Override
+	public void onAlignedSample(long timestampNanos, float[] values) {
+	    mFusionFilter.correct(timestampNanos, values);
+	    mEngine.processFiltered(timestampNanos, mFusionFilter.getX(), mFusionFilter.getY(), mFusionFilter.getZ());
+	    updateRate(timestampNanos);
+	}
+    };
+
+    private final ILegMovementListener mLogListener = new ILegMovementListener() {
+	@Override
+	public void onLegActivity(int activity, long timestampNanos) {
+	    LOG.d("Leg activity ", activity);
+	}
+    };
 }
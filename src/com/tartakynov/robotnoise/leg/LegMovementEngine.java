@@ -0,0 +1,237 @@
+package com.tartakynov.robotnoise.leg;
+
+import com.tartakynov.robotnoise.util.ListenerRegistry;
+
+/**
+ * @author Artem Tartakynov
+ * Detects leg state changes from the accelerometer signal. Doesn't depend on android.hardware,
+ * so the same code runs on a device and replays recorded traces on a desktop JVM.
+ * All three axes are filtered, the detection runs on the axis which currently swings the most,
+ * so the phone may lie in the pocket in any orientation. Forward swings also drive the GaitEstimator.
+ * Thresholds and the cascade noise come from LegParameters, they may be changed between samples.
+ * The engine isn't thread-safe, all samples must be fed from one thread. Listeners may be added and removed from any thread
+ */
+public class LegMovementEngine {
+    public static final float 	LEG_THRSHOLD_AMPLITUDE	= 1.0f;
+    public static final int 	LEG_THRSHOLD_INACTIVITY	= 10;
+    public static final int	LEG_MOVEMENT_NONE 	= 0;
+    public static final int 	LEG_MOVEMENT_FORWARD	= 1;
+    public static final int 	LEG_MOVEMENT_BACKWARD 	= 2;
+    public static final int	BLOCK_SIZE		= 64;
+    public static final int	AXIS_X			= 0;
+    public static final int	AXIS_Y			= 1;
+    public static final int	AXIS_Z			= 2;
+    public static final int	AXIS_AUTO		= -1;
+
+    private static final int	CASCADE_STAGES		= 3;
+    private static final float	SWING_SMOOTHING		= 0.05f; // weight of new sample in the swing estimate
+    private static final float	AXIS_SWITCH_RATIO	= 1.5f; // hysteresis of the axis selection
+
+    private final ListenerRegistry<ILegMovementListener> mListeners = new ListenerRegistry<ILegMovementListener>(ILegMovementListener.class);
+    private final GaitEstimator mGait = new GaitEstimator();
+    private MultiAxisKalmanFilter mFilter;
+    private LegParameters mParameters;
+    private final float[] mFilteredX = new float[BLOCK_SIZE];
+    private final float[] mFilteredY = new float[BLOCK_SIZE];
+    private final float[] mFilteredZ = new float[BLOCK_SIZE];
+    private final float[] mLast = new float[3]; // last filtered value of every axis
+    private final float[] mSwing = new float[3]; // smoothed absolute change of every axis
+    private final int mAxisMode;
+    private int mAxis = AXIS_Z;
+    private int mLastActivity = LEG_MOVEMENT_NONE;
+    private int mInactivityCount = 0;
+    private float mPeakAmplitude = 0;
+
+    public LegMovementEngine() {
+	this(AXIS_AUTO);
+    }
+
+    /**
+     * Creates engine which detects movement on the given axis, or picks the axis itself if axisMode is AXIS_AUTO
+     */
+    public LegMovementEngine(int axisMode) {
+	this(axisMode, LegParameters.DEFAULT);
+    }
+
+    /**
+     * Creates engine with given detection parameters
+     */
+    public LegMovementEngine(int axisMode, LegParameters parameters) {
+	mAxisMode = axisMode;
+	if (axisMode != AXIS_AUTO) {
+	    mAxis = axisMode;
+	}
+	setParameters(parameters);
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Adds listener
+     */
+    public void addListener(ILegMovementListener listener) {
+	mListeners.add(listener);
+    }
+
+    /**
+     * Removes listener
+     */
+    public void removeListener(ILegMovementListener listener) {
+	mListeners.remove(listener);
+    }
+
+    /**
+     * Adds listener of cadence and stride updates
+     */
+    public void addGaitListener(IGaitListener listener) {
+	mGait.addListener(listener);
+    }
+
+    /**
+     * Removes listener of cadence and stride updates
+     */
+    public void removeGaitListener(IGaitListener listener) {
+	mGait.removeListener(listener);
+    }
+
+    /**
+     * Processes single accelerometer sample, returns current leg state
+     */
+    public int process(long timestampNanos, float x, float y, float z) {
+	mFilter.correct(x, y, z);
+	detect(timestampNanos, mFilter.getX(), mFilter.getY(), mFilter.getZ());
+	return mLastActivity;
+    }
+
+    /**
+     * Processes count accelerometer samples starting from offset, returns current leg state.
+     * Input arrays are not modified
+     */
+    public int process(long[] timestampsNanos, float[] x, float[] y, float[] z, int offset, int count) {
+	final int end = offset + count;
+	for (int start = offset; start < end; start += BLOCK_SIZE) {
+	    final int length = Math.min(BLOCK_SIZE, end - start);
+	    mFilter.correct(x, y, z, start, length, mFilteredX, mFilteredY, mFilteredZ);
+	    for (int i = 0; i < length; i++) {
+		detect(timestampsNanos[start + i], mFilteredX[i], mFilteredY[i], mFilteredZ[i]);
+	    }
+	}
+	return mLastActivity;
+    }
+
+    /**
+     * Processes sample which has been filtered already, e.g. gravity estimated by FusionFilter, returns current leg state
+     */
+    public int processFiltered(long timestampNanos, float x, float y, float z) {
+	detect(timestampNanos, x, y, z);
+	return mLastActivity;
+    }
+
+    /**
+     * Switches to other detection parameters. The cascade is restarted if its noise has changed
+     */
+    public void setParameters(LegParameters parameters) {
+	if (mFilter == null || parameters.q != mParameters.q || parameters.r != mParameters.r) {
+	    mFilter = new MultiAxisKalmanFilter(CASCADE_STAGES, 1, 1, parameters.q, parameters.r);
+	}
+	mParameters = parameters;
+    }
+
+    public LegParameters getParameters() {
+	return mParameters;
+    }
+
+    /**
+     * Number of consecutive samples without movement
+     */
+    public int getInactivityCount() {
+	return mInactivityCount;
+    }
+
+    /**
+     * Returns the biggest change of filtered signal since resetPeakAmplitude()
+     */
+    public float getPeakAmplitude() {
+	return mPeakAmplitude;
+    }
+
+    public void resetPeakAmplitude() {
+	mPeakAmplitude = 0;
+    }
+
+    /**
+     * Gait estimate which is updated with every processed sample
+     */
+    public GaitEstimator getGait() {
+	return mGait;
+    }
+
+    /**
+     * Axis which is used for detection now
+     */
+    public int getAxis() {
+	return mAxis;
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Detects leg state change by the filtered sample
+     */
+    private void detect(long timestampNanos, float x, float y, float z) {
+	final float[] last = mLast;
+	if (mAxisMode == AXIS_AUTO) {
+	    final float[] swing = mSwing;
+	    swing[AXIS_X] += SWING_SMOOTHING * (Math.abs(x - last[AXIS_X]) - swing[AXIS_X]);
+	    swing[AXIS_Y] += SWING_SMOOTHING * (Math.abs(y - last[AXIS_Y]) - swing[AXIS_Y]);
+	    swing[AXIS_Z] += SWING_SMOOTHING * (Math.abs(z - last[AXIS_Z]) - swing[AXIS_Z]);
+	    int widest = (swing[AXIS_X] > swing[AXIS_Y]) ? AXIS_X : AXIS_Y;
+	    widest = (swing[AXIS_Z] > swing[widest]) ? AXIS_Z : widest;
+	    if (swing[widest] > swing[mAxis] * AXIS_SWITCH_RATIO) {
+		mAxis = widest;
+	    }
+	}
+	final float value = (mAxis == AXIS_Z) ? z : (mAxis == AXIS_Y) ? y : x;
+	final float lastValue = last[mAxis];
+	last[AXIS_X] = x;
+	last[AXIS_Y] = y;
+	last[AXIS_Z] = z;
+
+	final float amplitude = Math.abs(value - lastValue);
+	if (amplitude > mPeakAmplitude) {
+	    mPeakAmplitude = amplitude;
+	}
+	final LegParameters parameters = mParameters;
+	boolean stride = false;
+	if (amplitude > parameters.amplitudeThreshold)
+	{
+	    mInactivityCount = 0;
+	    int currentActivity = (value > lastValue) ? LEG_MOVEMENT_FORWARD : LEG_MOVEMENT_BACKWARD;
+	    if (currentActivity != mLastActivity){
+		mLastActivity = currentActivity;
+		stride = (currentActivity == LEG_MOVEMENT_FORWARD);
+		notifyListeners(currentActivity, timestampNanos);
+	    }
+	} else {
+	    if (mInactivityCount > parameters.inactivityThreshold) {
+		if (mLastActivity != LEG_MOVEMENT_NONE){
+		    mLastActivity = LEG_MOVEMENT_NONE;
+		    notifyListeners(LEG_MOVEMENT_NONE, timestampNanos);
+		}
+	    } else {
+		mInactivityCount++;
+	    }
+	}
+	mGait.update(timestampNanos, stride);
+    }
+
+    /**
+     * Calls registered event listeners
+     */
+    private void notifyListeners(int activity, long timestampNanos) {
+	if (activity == LEG_MOVEMENT_NONE) return;
+	for (ILegMovementListener listener : mListeners.snapshot()) {
+	    listener.onLegActivity(activity, timestampNanos);
+	}
+    }
+}
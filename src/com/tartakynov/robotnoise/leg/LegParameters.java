@@ -0,0 +1,51 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Tunable parameters of LegMovementEngine. The defaults suit a phone in a tight trouser pocket,
+ * LegCalibrator finds better ones for the particular phone and pocket. Instances are immutable
+ */
+public final class LegParameters {
+    public static final float	DEFAULT_Q		= 0.01f;
+    public static final float	DEFAULT_R		= 0.0025f;
+    public static final LegParameters DEFAULT = new LegParameters(LegMovementEngine.LEG_THRSHOLD_AMPLITUDE,
+	    LegMovementEngine.LEG_THRSHOLD_INACTIVITY, DEFAULT_Q, DEFAULT_R);
+
+    public final float amplitudeThreshold; // change of filtered signal between samples which counts as movement
+    public final int inactivityThreshold; // samples without movement before the leg is considered still
+    public final float q; // measurement noise of the Kalman cascade
+    public final float r; // environment noise of the Kalman cascade
+
+    public LegParameters(float amplitudeThreshold, int inactivityThreshold, float q, float r) {
+	this.amplitudeThreshold = amplitudeThreshold;
+	this.inactivityThreshold = inactivityThreshold;
+	this.q = q;
+	this.r = r;
+    }
+
+    /********************* Public methods ******************************/
+
+    public LegParameters withAmplitudeThreshold(float amplitudeThreshold) {
+	return new LegParameters(amplitudeThreshold, inactivityThreshold, q, r);
+    }
+
+    public LegParameters withInactivityThreshold(int inactivityThreshold) {
+	return new LegParameters(amplitudeThreshold, inactivityThreshold, q, r);
+    }
+
+    public LegParameters withNoise(float q, float r) {
+	return new LegParameters(amplitudeThreshold, inactivityThreshold, q, r);
+    }
+
+    /**
+     * True if the parameters can be used by the engine, e.g. after loading them from preferences
+     */
+    public boolean isValid() {
+	return amplitudeThreshold > 0 && inactivityThreshold > 0 && q > 0 && r > 0;
+    }
+
+    @Override
+    public String toString() {
+	return String.format("amplitude %.3f, inactivity %d, q %.5f, r %.5f", amplitudeThreshold, inactivityThreshold, q, r);
+    }
+}
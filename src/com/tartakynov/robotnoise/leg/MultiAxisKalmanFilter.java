@@ -0,0 +1,114 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Cascade of scalar Kalman filters applied to X, Y and Z axes in a single pass.
+ * All axes share the model, so covariance and gain don't depend on the measurements and are computed once per stage
+ * for all three axes. When the gain settles it's frozen and the update becomes a few multiplications per axis.
+ * The whole state is kept in one array: [covariance, gain, x, y, z] for every stage
+ */
+public final class MultiAxisKalmanFilter {
+    private static final int STRIDE 		= 5;
+    private static final int COVARIANCE 	= 0;
+    private static final int GAIN 		= 1;
+    private static final int X 			= 2;
+    private static final int Y 			= 3;
+    private static final int Z 			= 4;
+    private static final float GAIN_EPSILON 	= 1e-7f;
+
+    private final float[] mState;
+    private final int mStages;
+    private final float mF; // factor of real value to previous real value
+    private final float mH; // factor of measured value to real value
+    private final float mQ; // measurement noise
+    private final float mR; // environment noise
+    private boolean mGainSettled = false;
+
+    public MultiAxisKalmanFilter(int stages, float f, float h, float q, float r) {
+	mStages = stages;
+	mState = new float[stages * STRIDE];
+	mF = f;
+	mH = h;
+	mQ = q;
+	mR = r;
+	init(0, 0.1f);
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Resets all stages to given state and covariance
+     */
+    public void init(float initialState, float initialCovariance) {
+	for (int i = 0; i < mState.length; i += STRIDE) {
+	    mState[i + COVARIANCE] = initialCovariance;
+	    mState[i + GAIN] = 0;
+	    mState[i + X] = mState[i + Y] = mState[i + Z] = initialState;
+	}
+	mGainSettled = false;
+    }
+
+    /**
+     * Corrects all stages by the measurement, the result is available through getX(), getY() and getZ()
+     */
+    public void correct(float x, float y, float z) {
+	if (!mGainSettled) {
+	    updateGain();
+	}
+	final float[] s = mState;
+	final float f = mF;
+	final float h = mH;
+	for (int i = 0; i < s.length; i += STRIDE) {
+	    final float k = s[i + GAIN];
+	    final float x0 = f * s[i + X];
+	    final float y0 = f * s[i + Y];
+	    final float z0 = f * s[i + Z];
+	    x = s[i + X] = x0 + k * (x - h * x0);
+	    y = s[i + Y] = y0 + k * (y - h * y0);
+	    z = s[i + Z] = z0 + k * (z - h * z0);
+	}
+    }
+
+    /**
+     * Filters count samples starting from offset and writes the result into out arrays starting from 0
+     */
+    public void correct(float[] x, float[] y, float[] z, int offset, int count, float[] outX, float[] outY, float[] outZ) {
+	final int last = (mStages - 1) * STRIDE;
+	for (int i = 0; i < count; i++) {
+	    correct(x[offset + i], y[offset + i], z[offset + i]);
+	    outX[i] = mState[last + X];
+	    outY[i] = mState[last + Y];
+	    outZ[i] = mState[last + Z];
+	}
+    }
+
+    public float getX() {
+	return mState[(mStages - 1) * STRIDE + X];
+    }
+
+    public float getY() {
+	return mState[(mStages - 1) * STRIDE + Y];
+    }
+
+    public float getZ() {
+	return mState[(mStages - 1) * STRIDE + Z];
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Time and measurement update of covariance, same as in ScalarKalmanFilter
+     */
+    private void updateGain() {
+	final float[] s = mState;
+	boolean settled = true;
+	for (int i = 0; i < s.length; i += STRIDE) {
+	    final float p0 = mF * s[i + COVARIANCE] * mF + mQ;
+	    final float k = mH * p0 / (mH * p0 * mH + mR);
+	    settled &= Math.abs(k - s[i + GAIN]) < GAIN_EPSILON;
+	    s[i + GAIN] = k;
+	    s[i + COVARIANCE] = (1 - k * mH) * p0;
+	}
+	mGainSettled = settled;
+    }
+}
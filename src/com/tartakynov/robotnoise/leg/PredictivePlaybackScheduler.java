@@ -0,0 +1,204 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Starts the sound of the next leg movement before it's detected. The time from every transition to the
+ * opposite one is averaged separately for FORWARD and BACKWARD, once the gaps are steady the next transition
+ * is predicted and its sound is queued to start on time, playback startup included. When the transition
+ * is detected close to the prediction the sound has already been played, otherwise the queued sound is
+ * cancelled or the detected movement is played as usual.
+ * Doesn't depend on Android, all time values are in System.nanoTime() base and passed in by the caller.
+ * Not thread-safe, it's expected to be used on the sensor thread only
+ */
+public final class PredictivePlaybackScheduler {
+
+    /**
+     * @author Artem Tartakynov
+     * Performs the actions requested by the scheduler
+     */
+    public interface IHost {
+	/**
+	 * Starts the sound of given leg movement right now
+	 */
+	void play(int activity);
+
+	/**
+	 * Asks the host to call onScheduled() after given delay, replaces the previous request
+	 */
+	void schedule(long delayNanos);
+
+	/**
+	 * Drops the scheduled request
+	 */
+	void cancel();
+    }
+
+    public static final long	DEFAULT_TOLERANCE_NANOS	= 120000000L; // two samples at LEG_SENSOR_RATE
+
+    private static final float	GAP_SMOOTHING		= 0.3f; // weight of the new gap in the average
+    private static final int	MIN_OBSERVATIONS	= 3; // gaps of each kind seen before the first prediction
+
+    private final IHost mHost;
+    private final long mLeadNanos;
+    private final long mToleranceNanos;
+    private final float[] mGap = new float[3]; // average time before FORWARD and BACKWARD, by activity
+    private final float[] mDeviation = new float[3]; // average absolute error of the gap
+    private final int[] mObservations = new int[3];
+    private int mLastActivity = LegMovementEngine.LEG_MOVEMENT_NONE;
+    private long mLastAt;
+    private int mPredicted = LegMovementEngine.LEG_MOVEMENT_NONE;
+    private long mPredictedAt;
+    private boolean mScheduled = false; // the sound of mPredicted is queued
+    private boolean mPlayed = false; // the sound of mPredicted has been played ahead
+    private int mPredictions = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mCancels = 0;
+
+    /**
+     * @param leadNanos how long before the predicted transition the sound is started, i.e. playback startup time
+     * @param toleranceNanos the biggest difference between predicted and detected transition which counts as a hit
+     */
+    public PredictivePlaybackScheduler(IHost host, long leadNanos, long toleranceNanos) {
+	mHost = host;
+	mLeadNanos = leadNanos;
+	mToleranceNanos = toleranceNanos;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Handles detected leg movement
+     * @param activity LEG_MOVEMENT_FORWARD or LEG_MOVEMENT_BACKWARD
+     * @param eventNanos time of the sample which caused the transition
+     * @param nowNanos current time
+     */
+    public void onLegActivity(int activity, long eventNanos, long nowNanos) {
+	if (mPredicted != LegMovementEngine.LEG_MOVEMENT_NONE) {
+	    final boolean hit = activity == mPredicted && Math.abs(eventNanos - mPredictedAt) <= mToleranceNanos;
+	    if (mPlayed) {
+		if (hit) {
+		    mHits++;
+		} else {
+		    mMisses++;
+		    mHost.play(activity);
+		}
+	    } else {
+		// the transition came before the queued sound, play it now
+		mHost.cancel();
+		if (!hit) {
+		    mCancels++;
+		}
+		mHost.play(activity);
+	    }
+	    mPredicted = LegMovementEngine.LEG_MOVEMENT_NONE;
+	    mScheduled = false;
+	    mPlayed = false;
+	} else {
+	    mHost.play(activity);
+	}
+	learn(activity, eventNanos);
+	predict(nowNanos);
+    }
+
+    /**
+     * Called by the host when the scheduled time has come
+     */
+    public void onScheduled(long nowNanos) {
+	if (!mScheduled) {
+	    return;
+	}
+	mScheduled = false;
+	mPlayed = true;
+	mHost.play(mPredicted);
+    }
+
+    /**
+     * Drops the queued sound and forgets the gait, e.g. when the user stops walking
+     */
+    public void reset() {
+	if (mScheduled) {
+	    mHost.cancel();
+	    mCancels++;
+	} else if (mPlayed) {
+	    mMisses++;
+	}
+	mPredicted = LegMovementEngine.LEG_MOVEMENT_NONE;
+	mScheduled = false;
+	mPlayed = false;
+	mLastActivity = LegMovementEngine.LEG_MOVEMENT_NONE;
+	for (int i = 0; i < mObservations.length; i++) {
+	    mObservations[i] = 0;
+	}
+    }
+
+    /**
+     * Number of transitions whose sounds were queued ahead
+     */
+    public int getPredictionCount() {
+	return mPredictions;
+    }
+
+    /**
+     * Number of sounds which were played ahead and then confirmed by the detector
+     */
+    public int getHitCount() {
+	return mHits;
+    }
+
+    /**
+     * Number of sounds which were played ahead and turned out to be wrong
+     */
+    public int getMissCount() {
+	return mMisses;
+    }
+
+    /**
+     * Number of wrong predictions which were cancelled before their sounds started
+     */
+    public int getCancelCount() {
+	return mCancels;
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Updates the average gap before given transition
+     */
+    private void learn(int activity, long eventNanos) {
+	if (mLastActivity != LegMovementEngine.LEG_MOVEMENT_NONE && mLastActivity != activity) {
+	    final float gap = eventNanos - mLastAt;
+	    if (mObservations[activity] == 0) {
+		mGap[activity] = gap;
+		mDeviation[activity] = 0;
+	    } else {
+		mDeviation[activity] += GAP_SMOOTHING * (Math.abs(gap - mGap[activity]) - mDeviation[activity]);
+		mGap[activity] += GAP_SMOOTHING * (gap - mGap[activity]);
+	    }
+	    mObservations[activity]++;
+	}
+	mLastActivity = activity;
+	mLastAt = eventNanos;
+    }
+
+    /**
+     * Queues the sound of the next transition if the gaps are steady enough
+     */
+    private void predict(long nowNanos) {
+	final int next = (mLastActivity == LegMovementEngine.LEG_MOVEMENT_FORWARD)
+		? LegMovementEngine.LEG_MOVEMENT_BACKWARD : LegMovementEngine.LEG_MOVEMENT_FORWARD;
+	if (mObservations[next] < MIN_OBSERVATIONS || mDeviation[next] > mToleranceNanos / 2) {
+	    return;
+	}
+	final long at = mLastAt + (long) mGap[next];
+	final long delay = at - mLeadNanos - nowNanos;
+	if (delay <= 0) {
+	    return; // too late, the detector will be faster
+	}
+	mPredicted = next;
+	mPredictedAt = at;
+	mScheduled = true;
+	mPredictions++;
+	mHost.schedule(delay);
+    }
+}
@@ -0,0 +1,143 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Merges 3-axis samples of several sensors which arrive with their own timestamps and rates. Samples of the
+ * primary sensor are held until every secondary sensor has reported a later sample, then the secondary values are
+ * linearly interpolated to the primary timestamp and the merged sample is passed to the listener.
+ * A primary sample doesn't wait longer than the maximal delay, then the last secondary values are used.
+ * Doesn't allocate after construction and isn't thread-safe, it's expected to be used from the sensor thread only
+ */
+public final class SampleAligner {
+
+    /**
+     * @author Artem Tartakynov
+     * Receives merged samples in order of the primary timestamps
+     */
+    public interface IListener {
+	/**
+	 * @param values X, Y, Z of the primary sensor followed by X, Y, Z of every secondary one,
+	 * the array is reused by the next call
+	 */
+	void onAlignedSample(long timestampNanos, float[] values);
+    }
+
+    private static final long NO_SAMPLE = Long.MIN_VALUE;
+
+    private final IListener mListener;
+    private final SampleRingBuffer mPending;
+    private final long mMaxDelayNanos;
+    private final int mStreams;
+    private final long[] mPreviousTime; // of every secondary sensor
+    private final long[] mLastTime;
+    private final float[] mPrevious; // X, Y, Z of every secondary sensor
+    private final float[] mLast;
+    private final float[] mValues;
+
+    /**
+     * @param secondaryStreams number of secondary sensors
+     * @param capacity the biggest number of primary samples which wait for the secondary ones
+     * @param maxDelayNanos the longest time a primary sample waits for the secondary ones
+     */
+    public SampleAligner(IListener listener, int secondaryStreams, int capacity, long maxDelayNanos) {
+	mListener = listener;
+	mStreams = secondaryStreams;
+	mPending = new SampleRingBuffer(capacity);
+	mMaxDelayNanos = maxDelayNanos;
+	mPreviousTime = new long[secondaryStreams];
+	mLastTime = new long[secondaryStreams];
+	mPrevious = new float[secondaryStreams * 3];
+	mLast = new float[secondaryStreams * 3];
+	mValues = new float[3 + secondaryStreams * 3];
+	clear();
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Adds sample of the primary sensor
+     */
+    public void putPrimary(long timestampNanos, float x, float y, float z) {
+	if (!mPending.put(timestampNanos, x, y, z)) {
+	    emitOldest();
+	    mPending.put(timestampNanos, x, y, z);
+	}
+	drain();
+    }
+
+    /**
+     * Adds sample of the secondary sensor
+     * @param stream index of the secondary sensor
+     */
+    public void putSecondary(int stream, long timestampNanos, float x, float y, float z) {
+	final int i = stream * 3;
+	mPreviousTime[stream] = mLastTime[stream];
+	mPrevious[i] = mLast[i];
+	mPrevious[i + 1] = mLast[i + 1];
+	mPrevious[i + 2] = mLast[i + 2];
+	mLastTime[stream] = timestampNanos;
+	mLast[i] = x;
+	mLast[i + 1] = y;
+	mLast[i + 2] = z;
+	drain();
+    }
+
+    /**
+     * Drops all pending and secondary samples
+     */
+    public void clear() {
+	mPending.clear();
+	for (int i = 0; i < mStreams; i++) {
+	    mPreviousTime[i] = mLastTime[i] = NO_SAMPLE;
+	}
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Emits the primary samples which don't need to wait anymore
+     */
+    private void drain() {
+	while (mPending.size() > 0) {
+	    final long oldest = mPending.peekOldest();
+	    if (!isCovered(oldest) && mPending.peekNewest() - oldest < mMaxDelayNanos) {
+		return;
+	    }
+	    emitOldest();
+	}
+    }
+
+    /**
+     * True if every secondary sensor has a sample at or after the timestamp
+     */
+    private boolean isCovered(long timestampNanos) {
+	for (int i = 0; i < mStreams; i++) {
+	    if (mLastTime[i] == NO_SAMPLE || mLastTime[i] < timestampNanos) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private void emitOldest() {
+	final float[] values = mValues;
+	final long timestamp = mPending.poll(values, 0);
+	for (int stream = 0; stream < mStreams; stream++) {
+	    final int i = stream * 3;
+	    final long last = mLastTime[stream];
+	    final long previous = mPreviousTime[stream];
+	    float weight = 1; // of the last sample, the last sample is held after its timestamp
+	    if (previous != NO_SAMPLE && timestamp < last) {
+		weight = (timestamp <= previous) ? 0 : (float) (timestamp - previous) / (last - previous);
+	    }
+	    if (last == NO_SAMPLE) {
+		values[3 + i] = values[4 + i] = values[5 + i] = 0;
+	    } else {
+		values[3 + i] = mPrevious[i] + weight * (mLast[i] - mPrevious[i]);
+		values[4 + i] = mPrevious[i + 1] + weight * (mLast[i + 1] - mPrevious[i + 1]);
+		values[5 + i] = mPrevious[i + 2] + weight * (mLast[i + 2] - mPrevious[i + 2]);
+	    }
+	}
+	mListener.onAlignedSample(timestamp, values);
+    }
+}
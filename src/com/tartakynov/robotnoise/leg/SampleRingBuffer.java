@@ -0,0 +1,110 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Preallocated ring buffer of 3-axis sensor samples which is used for block processing.
+ * It doesn't allocate anything after construction and isn't thread-safe, it's expected to be used from the sensor thread only.
+ */
+public final class SampleRingBuffer {
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+    private final int mMask;
+    private int mHead = 0; // index of the oldest sample
+    private int mSize = 0;
+
+    /**
+     * Creates buffer which holds at least given number of samples
+     */
+    public SampleRingBuffer(int capacity) {
+	int size = 1;
+	while (size < capacity) {
+	    size <<= 1;
+	}
+	mTimestamps = new long[size];
+	mX = new float[size];
+	mY = new float[size];
+	mZ = new float[size];
+	mMask = size - 1;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Appends sample to the end of buffer, returns false if the buffer is full
+     */
+    public boolean put(long timestamp, float x, float y, float z) {
+	if (mSize == mTimestamps.length) {
+	    return false;
+	}
+	final int index = (mHead + mSize) & mMask;
+	mTimestamps[index] = timestamp;
+	mX[index] = x;
+	mY[index] = y;
+	mZ[index] = z;
+	mSize++;
+	return true;
+    }
+
+    /**
+     * Moves the oldest samples into given arrays, returns number of moved samples
+     */
+    public int drain(long[] timestamps, float[] x, float[] y, float[] z) {
+	final int count = Math.min(mSize, timestamps.length);
+	for (int i = 0; i < count; i++) {
+	    final int index = (mHead + i) & mMask;
+	    timestamps[i] = mTimestamps[index];
+	    x[i] = mX[index];
+	    y[i] = mY[index];
+	    z[i] = mZ[index];
+	}
+	mHead = (mHead + count) & mMask;
+	mSize -= count;
+	return count;
+    }
+
+    /**
+     * Removes the oldest sample, its axes are written to values starting from offset. Returns its timestamp.
+     * The buffer must not be empty
+     */
+    public long poll(float[] values, int offset) {
+	final int index = mHead;
+	values[offset] = mX[index];
+	values[offset + 1] = mY[index];
+	values[offset + 2] = mZ[index];
+	mHead = (mHead + 1) & mMask;
+	mSize--;
+	return mTimestamps[index];
+    }
+
+    /**
+     * Timestamp of the oldest sample, the buffer must not be empty
+     */
+    public long peekOldest() {
+	return mTimestamps[mHead];
+    }
+
+    /**
+     * Timestamp of the newest sample, the buffer must not be empty
+     */
+    public long peekNewest() {
+	return mTimestamps[(mHead + mSize - 1) & mMask];
+    }
+
+    /**
+     * Drops all samples
+     */
+    public void clear() {
+	mHead = 0;
+	mSize = 0;
+    }
+
+    public int size() {
+	return mSize;
+    }
+
+    public int capacity() {
+	return mTimestamps.length;
+    }
+}
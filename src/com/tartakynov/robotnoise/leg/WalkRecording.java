@@ -0,0 +1,80 @@
+package com.tartakynov.robotnoise.leg;
+
+/**
+ * @author Artem Tartakynov
+ * Raw accelerometer samples of a calibration walk kept in memory. The arrays are allocated once,
+ * samples are appended on the sensor thread until the recording is full and then it's handed over to LegCalibrator
+ */
+public final class WalkRecording {
+    private final long[] mTimestamps;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mZ;
+    private int mLength = 0;
+
+    public WalkRecording(int capacity) {
+	mTimestamps = new long[capacity];
+	mX = new float[capacity];
+	mY = new float[capacity];
+	mZ = new float[capacity];
+    }
+
+    /**
+     * Wraps already recorded samples, e.g. a replayed trace
+     */
+    public WalkRecording(long[] timestamps, float[] x, float[] y, float[] z, int length) {
+	mTimestamps = timestamps;
+	mX = x;
+	mY = y;
+	mZ = z;
+	mLength = length;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Appends sample, returns false if the recording is full
+     */
+    public boolean add(long timestamp, float x, float y, float z) {
+	if (mLength == mTimestamps.length) {
+	    return false;
+	}
+	mTimestamps[mLength] = timestamp;
+	mX[mLength] = x;
+	mY[mLength] = y;
+	mZ[mLength] = z;
+	mLength++;
+	return true;
+    }
+
+    public boolean isFull() {
+	return mLength == mTimestamps.length;
+    }
+
+    /**
+     * Duration between the first and the last sample
+     */
+    public long getDurationNanos() {
+	return mLength < 2 ? 0 : mTimestamps[mLength - 1] - mTimestamps[0];
+    }
+
+    public int getLength() {
+	return mLength;
+    }
+
+    public long[] getTimestamps() {
+	return mTimestamps;
+    }
+
+    public float[] getX() {
+	return mX;
+    }
+
+    public float[] getY() {
+	return mY;
+    }
+
+    public float[] getZ() {
+	return mZ;
+    }
+}
@@ -0,0 +1,217 @@
+package com.tartakynov.robotnoise.pocket;
+
+/**
+ * @author Artem Tartakynov
+ * Decides whether the phone is in the pocket by proximity readings. A reading between the near and far distances
+ * doesn't change anything, a changed reading has to hold for the debounce time before the state follows it,
+ * so fabric moving over the sensor doesn't start and stop the leg detector. If the light sensor is used, the new
+ * state also waits for it to agree (dark in the pocket, not dark out of it), but never longer than the maximal
+ * latency. Doesn't depend on Android, time values are in milliseconds and passed in by the caller.
+ * Not thread-safe, it's expected to be used on the sensor thread only
+ */
+public final class PocketStateMachine {
+
+    /**
+     * @author Artem Tartakynov
+     * Performs the actions requested by the state machine
+     */
+    public interface IHost {
+	void onPocketStateChanged(int state);
+
+	/**
+	 * Asks the host to call onCheck() after given delay, replaces the previous request
+	 */
+	void scheduleCheck(long delayMillis);
+
+	void cancelCheck();
+
+	/**
+	 * Starts delivering light readings to onLight(), the light sensor is only needed while a change is pending
+	 */
+	void startLightSensor();
+
+	void stopLightSensor();
+    }
+
+    public static final int 	STATE_NONE 		= 0; // undetermined state
+    public static final int 	STATE_IN_POCKET 	= 1;
+    public static final int 	STATE_OUT_OF_POCKET 	= 2;
+    public static final float 	DARK_LUX 		= 10.0f;
+
+    private static final long 	NO_CHANGE 		= Long.MIN_VALUE;
+
+    private final IHost mHost;
+    private final float mNearDistance;
+    private final float mFarDistance;
+    private final long mInDebounceMillis;
+    private final long mOutDebounceMillis;
+    private final long mMaxLatencyMillis;
+    private final boolean mUseLight;
+    private int mState = STATE_NONE;
+    private int mReading = STATE_NONE; // state by the last proximity reading
+    private int mRawReading = STATE_NONE; // state by the last reading against the near distance alone
+    private long mChangedAt = NO_CHANGE; // when the reading started to differ from the state
+    private boolean mLightOn = false;
+    private boolean mHasLux = false;
+    private float mLux;
+    private int mFlips = 0;
+    private int mChanges = 0;
+
+    /**
+     * @param nearDistance the phone is in the pocket below this distance, cm
+     * @param farDistance the phone is out of the pocket above this distance, cm
+     * @param inDebounceMillis how long the reading must hold before the phone is considered in the pocket
+     * @param outDebounceMillis how long the reading must hold before the phone is considered out of the pocket
+     * @param maxLatencyMillis the longest time the light sensor may delay the change, at least the debounce times
+     * @param useLight whether the light sensor confirms the change
+     */
+    public PocketStateMachine(IHost host, float nearDistance, float farDistance, long inDebounceMillis,
+	    long outDebounceMillis, long maxLatencyMillis, boolean useLight) {
+	mHost = host;
+	mNearDistance = nearDistance;
+	mFarDistance = farDistance;
+	mInDebounceMillis = inDebounceMillis;
+	mOutDebounceMillis = outDebounceMillis;
+	mMaxLatencyMillis = Math.max(maxLatencyMillis, Math.max(inDebounceMillis, outDebounceMillis));
+	mUseLight = useLight;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Handles proximity reading
+     */
+    public void onDistance(long nowMillis, float distance) {
+	final int raw = (distance < mNearDistance) ? STATE_IN_POCKET : STATE_OUT_OF_POCKET;
+	if (mRawReading != STATE_NONE && raw != mRawReading) {
+	    mFlips++; // counted before the hysteresis band, which saves restarts as well
+	}
+	mRawReading = raw;
+	final int reading;
+	if (distance < mNearDistance) {
+	    reading = STATE_IN_POCKET;
+	} else if (distance > mFarDistance || mReading == STATE_NONE) {
+	    reading = STATE_OUT_OF_POCKET;
+	} else {
+	    reading = mReading; // hysteresis band
+	}
+	if (reading == mReading) {
+	    return;
+	}
+	mReading = reading;
+	if (mState == STATE_NONE) {
+	    commit(); // the first reading is taken as is
+	} else if (reading == mState) {
+	    cancel(); // the reading came back before the change was taken
+	} else {
+	    mChangedAt = nowMillis;
+	    if (mUseLight && !mLightOn) {
+		mLightOn = true;
+		mHasLux = false;
+		mHost.startLightSensor();
+	    }
+	    evaluate(nowMillis);
+	}
+    }
+
+    /**
+     * Handles light sensor reading
+     */
+    public void onLight(long nowMillis, float lux) {
+	mLux = lux;
+	mHasLux = true;
+	evaluate(nowMillis);
+    }
+
+    /**
+     * Called by the host when the scheduled time has come
+     */
+    public void onCheck(long nowMillis) {
+	evaluate(nowMillis);
+    }
+
+    /**
+     * Forgets the state, e.g. when the proximity sensor is unregistered
+     */
+    public void reset() {
+	cancel();
+	mState = STATE_NONE;
+	mReading = STATE_NONE;
+	mRawReading = STATE_NONE;
+    }
+
+    public int getState() {
+	return mState;
+    }
+
+    /**
+     * Number of times the proximity reading crossed the near distance, a detector without the hysteresis band
+     * and debouncing would follow every one of them
+     */
+    public int getFlipCount() {
+	return mFlips;
+    }
+
+    /**
+     * Number of state changes after the first one
+     */
+    public int getChangeCount() {
+	return mChanges;
+    }
+
+    /**
+     * Number of leg detector starts and stops saved compared to following every reading
+     */
+    public int getAvoidedCount() {
+	return mFlips - mChanges;
+    }
+
+    /********************* Private methods *****************************/
+
+    /**
+     * Takes the pending change if it has held long enough, otherwise schedules the next check
+     */
+    private void evaluate(long nowMillis) {
+	if (mChangedAt == NO_CHANGE) {
+	    return;
+	}
+	final long elapsed = nowMillis - mChangedAt;
+	final long debounce = (mReading == STATE_IN_POCKET) ? mInDebounceMillis : mOutDebounceMillis;
+	if (elapsed >= mMaxLatencyMillis || (elapsed >= debounce && isConfirmed())) {
+	    mChanges++;
+	    commit();
+	} else {
+	    mHost.scheduleCheck((elapsed < debounce ? debounce : mMaxLatencyMillis) - elapsed);
+	}
+    }
+
+    /**
+     * True if the light sensor agrees with the reading or isn't used
+     */
+    private boolean isConfirmed() {
+	if (!mUseLight) {
+	    return true;
+	}
+	return mHasLux && (mLux < DARK_LUX) == (mReading == STATE_IN_POCKET);
+    }
+
+    private void commit() {
+	cancel();
+	mState = mReading;
+	mHost.onPocketStateChanged(mState);
+    }
+
+    /**
+     * Drops the pending change
+     */
+    private void cancel() {
+	if (mChangedAt != NO_CHANGE) {
+	    mChangedAt = NO_CHANGE;
+	    mHost.cancelCheck();
+	}
+	if (mLightOn) {
+	    mLightOn = false;
+	    mHost.stopLightSensor();
+	}
+    }
+}
@@ -0,0 +1,159 @@
+package com.tartakynov.robotnoise.power;
+
+/**
+ * @author Artem Tartakynov
+ * Decides when the CPU must stay awake. The session sleeps until a wake-up sensor reports motion,
+ * then holds the wakelock and runs the leg detector (while the phone is in pocket) until there is no leg activity
+ * for the idle timeout. Doesn't depend on Android, all time values are passed in by the caller in milliseconds
+ */
+public final class WalkingSession {
+
+    /**
+     * @author Artem Tartakynov
+     * Performs the actions requested by the session
+     */
+    public interface IHost {
+	void acquireWakeLock();
+
+	void releaseWakeLock();
+
+	void startDetector();
+
+	void stopDetector();
+
+	/**
+	 * Arms the hardware wake-up sensor, the host calls onWakeUp() when it fires
+	 */
+	void armWakeUp();
+
+	void disarmWakeUp();
+
+	/**
+	 * Asks the host to call onCheck() after given delay
+	 */
+	void scheduleCheck(long delayMillis);
+    }
+
+    public static final int STATE_STOPPED 	= 0;
+    public static final int STATE_SLEEPING 	= 1;
+    public static final int STATE_WALKING 	= 2;
+
+    private final IHost mHost;
+    private final long mIdleTimeoutMillis;
+    private int mState = STATE_STOPPED;
+    private boolean mInPocket = false;
+    private boolean mDetectorRunning = false;
+    private long mLastActivityMillis;
+    private int mWakeUps = 0;
+
+    public WalkingSession(IHost host, long idleTimeoutMillis) {
+	mHost = host;
+	mIdleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Starts the session awake, so the user doesn't have to wait for the wake-up sensor
+     */
+    public void start(long nowMillis) {
+	if (mState == STATE_STOPPED) {
+	    mLastActivityMillis = nowMillis;
+	    wake();
+	}
+    }
+
+    /**
+     * Stops the detector, releases the wakelock and disarms the wake-up sensor
+     */
+    public void stop() {
+	if (mState == STATE_WALKING) {
+	    mHost.releaseWakeLock();
+	} else if (mState == STATE_SLEEPING) {
+	    mHost.disarmWakeUp();
+	}
+	mState = STATE_STOPPED;
+	updateDetector();
+    }
+
+    /**
+     * Called when the wake-up sensor has fired
+     */
+    public void onWakeUp(long nowMillis) {
+	mLastActivityMillis = nowMillis;
+	if (mState != STATE_SLEEPING) {
+	    return;
+	}
+	mWakeUps++;
+	wake();
+    }
+
+    /**
+     * Called when the leg detector reports a movement
+     */
+    public void onLegActivity(long nowMillis) {
+	mLastActivityMillis = nowMillis;
+    }
+
+    /**
+     * Called when the phone is put in or taken out of pocket
+     */
+    public void setInPocket(boolean inPocket, long nowMillis) {
+	mInPocket = inPocket;
+	mLastActivityMillis = nowMillis;
+	updateDetector();
+    }
+
+    /**
+     * Called by the host when the scheduled check is due, goes to sleep if there was no activity for the idle timeout
+     */
+    public void onCheck(long nowMillis) {
+	if (mState != STATE_WALKING) {
+	    return;
+	}
+	final long idle = nowMillis - mLastActivityMillis;
+	if (idle < mIdleTimeoutMillis) {
+	    mHost.scheduleCheck(mIdleTimeoutMillis - idle);
+	    return;
+	}
+	mState = STATE_SLEEPING;
+	updateDetector();
+	mHost.armWakeUp();
+	mHost.releaseWakeLock();
+    }
+
+    public int getState() {
+	return mState;
+    }
+
+    /**
+     * Number of times the session was woken up by the sensor
+     */
+    public int getWakeUpCount() {
+	return mWakeUps;
+    }
+
+    /********************* Private methods *****************************/
+
+    private void wake() {
+	mState = STATE_WALKING;
+	mHost.acquireWakeLock();
+	mHost.scheduleCheck(mIdleTimeoutMillis);
+	updateDetector();
+    }
+
+    /**
+     * Runs the detector only while walking with the phone in pocket
+     */
+    private void updateDetector() {
+	final boolean run = mState == STATE_WALKING && mInPocket;
+	if (run != mDetectorRunning) {
+	    mDetectorRunning = run;
+	    if (run) {
+		mHost.startDetector();
+	    } else {
+		mHost.stopDetector();
+	    }
+	}
+    }
+}
@@ -0,0 +1,135 @@
+package com.tartakynov.robotnoise.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Artem Tartakynov
+ * Reads trace written by TraceWriter. The file is memory-mapped and records are decoded in place,
+ * current record is exposed through getters so iterating doesn't allocate
+ */
+public final class TraceReader {
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mRecordCount;
+    private int mIndex = -1;
+    private int mSensorType;
+    private long mTimestamp;
+    private float mX;
+    private float mY;
+    private float mZ;
+
+    public TraceReader(File file) throws IOException {
+	mFile = new RandomAccessFile(file, "r");
+	try {
+	    final FileChannel channel = mFile.getChannel();
+	    checkHeader(channel);
+	    final long size = channel.size();
+	    if (size - TraceWriter.HEADER_SIZE > Integer.MAX_VALUE) {
+		throw new IOException("Trace is too big: " + size);
+	    }
+	    mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	    mBuffer.order(TraceWriter.BYTE_ORDER);
+	    mRecordCount = (int) ((size - TraceWriter.HEADER_SIZE) / TraceWriter.RECORD_SIZE);
+	} catch (IOException e) {
+	    mFile.close();
+	    throw e;
+	}
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Moves to the next record, returns false at the end of trace
+     */
+    public boolean next() {
+	if (mIndex + 1 >= mRecordCount) {
+	    return false;
+	}
+	mIndex++;
+	int position = TraceWriter.HEADER_SIZE + mIndex * TraceWriter.RECORD_SIZE;
+	mSensorType = mBuffer.get(position);
+	mTimestamp = mBuffer.getLong(position + 1);
+	mX = mBuffer.getFloat(position + 9);
+	mY = mBuffer.getFloat(position + 13);
+	mZ = mBuffer.getFloat(position + 17);
+	return true;
+    }
+
+    /**
+     * Reads up to count next records of given sensor type into arrays, records of other types are skipped.
+     * Returns number of read records, 0 at the end of trace
+     */
+    public int read(int sensorType, long[] timestamps, float[] x, float[] y, float[] z, int offset, int count) {
+	int read = 0;
+	while (read < count && next()) {
+	    if (mSensorType == sensorType) {
+		timestamps[offset + read] = mTimestamp;
+		x[offset + read] = mX;
+		y[offset + read] = mY;
+		z[offset + read] = mZ;
+		read++;
+	    }
+	}
+	return read;
+    }
+
+    /**
+     * Moves before the first record
+     */
+    public void rewind() {
+	mIndex = -1;
+    }
+
+    public void close() throws IOException {
+	mFile.close();
+    }
+
+    public int getRecordCount() {
+	return mRecordCount;
+    }
+
+    public int getSensorType() {
+	return mSensorType;
+    }
+
+    public long getTimestamp() {
+	return mTimestamp;
+    }
+
+    public float getX() {
+	return mX;
+    }
+
+    public float getY() {
+	return mY;
+    }
+
+    public float getZ() {
+	return mZ;
+    }
+
+    /********************* Package methods *****************************/
+
+    /**
+     * Throws if the file doesn't start with a valid header
+     */
+    static void checkHeader(FileChannel channel) throws IOException {
+	final ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE).order(TraceWriter.BYTE_ORDER);
+	while (header.hasRemaining()) {
+	    if (channel.read(header, header.position()) < 0) {
+		throw new IOException("Trace header is truncated");
+	    }
+	}
+	if (header.getInt(0) != TraceWriter.MAGIC) {
+	    throw new IOException("Not a trace file");
+	}
+	if (header.getShort(4) != TraceWriter.VERSION) {
+	    throw new IOException("Unsupported trace version " + header.getShort(4));
+	}
+    }
+}
@@ -0,0 +1,70 @@
+package com.tartakynov.robotnoise.trace;
+
+import com.tartakynov.robotnoise.leg.LegMovementEngine;
+
+/**
+ * @author Artem Tartakynov
+ * Replays recorded trace through the detection engine as fast as possible.
+ * Accelerometer samples are fed in blocks, samples recorded while the phone was out of pocket are skipped
+ * the same way the service stops the detector
+ */
+public final class TraceReplay {
+    private final long[] mTimestamps = new long[LegMovementEngine.BLOCK_SIZE];
+    private final float[] mX = new float[LegMovementEngine.BLOCK_SIZE];
+    private final float[] mY = new float[LegMovementEngine.BLOCK_SIZE];
+    private final float[] mZ = new float[LegMovementEngine.BLOCK_SIZE];
+    private final float mPocketDistance;
+
+    /**
+     * Creates replay which treats proximity readings below pocketDistance as "in pocket",
+     * if pocketDistance isn't positive all accelerometer samples are replayed
+     */
+    public TraceReplay(float pocketDistance) {
+	mPocketDistance = pocketDistance;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Replays the trace from the beginning, returns number of accelerometer samples fed to the engine
+     */
+    public long replay(TraceReader reader, LegMovementEngine engine) {
+	long replayed = 0;
+	int count = 0;
+	boolean inPocket = true;
+	reader.rewind();
+	while (reader.next()) {
+	    switch (reader.getSensorType()) {
+	    case TraceWriter.SENSOR_PROXIMITY:
+		if (mPocketDistance > 0) {
+		    replayed += feed(engine, count);
+		    count = 0;
+		    inPocket = reader.getX() < mPocketDistance;
+		}
+		break;
+	    case TraceWriter.SENSOR_ACCELEROMETER:
+		if (inPocket) {
+		    mTimestamps[count] = reader.getTimestamp();
+		    mX[count] = reader.getX();
+		    mY[count] = reader.getY();
+		    mZ[count] = reader.getZ();
+		    if (++count == mTimestamps.length) {
+			replayed += feed(engine, count);
+			count = 0;
+		    }
+		}
+		break;
+	    }
+	}
+	return replayed + feed(engine, count);
+    }
+
+    /********************* Private methods *****************************/
+
+    private int feed(LegMovementEngine engine, int count) {
+	if (count > 0) {
+	    engine.process(mTimestamps, mX, mY, mZ, 0, count);
+	}
+	return count;
+    }
+}
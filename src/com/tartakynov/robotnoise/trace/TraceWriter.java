@@ -0,0 +1,98 @@
+package com.tartakynov.robotnoise.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Artem Tartakynov
+ * Appends raw sensor samples to a binary trace file. The file starts with a header (magic and version)
+ * followed by fixed size records: sensor type (byte), timestamp in nanoseconds (long), x, y, z (float).
+ * Samples are collected in a preallocated direct buffer and written through FileChannel when it's full,
+ * nothing is allocated per sample. Not thread-safe
+ */
+public final class TraceWriter {
+    public static final int MAGIC 			= 0x52425452; // "RBTR"
+    public static final short VERSION 			= 1;
+    public static final int HEADER_SIZE 		= 8;
+    public static final int RECORD_SIZE 		= 1 + 8 + 4 * 3;
+    public static final int SENSOR_ACCELEROMETER 	= 1; // same as android.hardware.Sensor.TYPE_ACCELEROMETER
+    public static final int SENSOR_GYROSCOPE 		= 4; // same as android.hardware.Sensor.TYPE_GYROSCOPE
+    public static final int SENSOR_LIGHT 		= 5; // same as android.hardware.Sensor.TYPE_LIGHT
+    public static final int SENSOR_PROXIMITY 		= 8; // same as android.hardware.Sensor.TYPE_PROXIMITY
+    public static final int SENSOR_LINEAR_ACCELERATION 	= 10; // same as android.hardware.Sensor.TYPE_LINEAR_ACCELERATION
+    static final ByteOrder BYTE_ORDER 			= ByteOrder.LITTLE_ENDIAN;
+
+    private static final int BUFFER_RECORDS 		= 512;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private long mRecordCount;
+
+    /**
+     * Opens the trace for appending, the header is written if the file is empty
+     */
+    public TraceWriter(File file) throws IOException {
+	mFile = new RandomAccessFile(file, "rw");
+	mChannel = mFile.getChannel();
+	mBuffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE).order(BYTE_ORDER);
+	try {
+	    final long size = mChannel.size();
+	    if (size < HEADER_SIZE) {
+		mChannel.truncate(0);
+		mBuffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+		flush();
+	    } else {
+		TraceReader.checkHeader(mChannel);
+		mRecordCount = (size - HEADER_SIZE) / RECORD_SIZE;
+		mChannel.position(HEADER_SIZE + mRecordCount * RECORD_SIZE); // drop a partially written record
+	    }
+	} catch (IOException e) {
+	    mFile.close();
+	    throw e;
+	}
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Appends sample
+     */
+    public void write(int sensorType, long timestampNanos, float x, float y, float z) throws IOException {
+	if (mBuffer.remaining() < RECORD_SIZE) {
+	    flush();
+	}
+	mBuffer.put((byte) sensorType).putLong(timestampNanos).putFloat(x).putFloat(y).putFloat(z);
+	mRecordCount++;
+    }
+
+    /**
+     * Writes buffered samples to the file
+     */
+    public void flush() throws IOException {
+	mBuffer.flip();
+	while (mBuffer.hasRemaining()) {
+	    mChannel.write(mBuffer);
+	}
+	mBuffer.clear();
+    }
+
+    /**
+     * Flushes buffered samples and closes the file
+     */
+    public void close() throws IOException {
+	try {
+	    flush();
+	} finally {
+	    mFile.close();
+	}
+    }
+
+    public long getRecordCount() {
+	return mRecordCount;
+    }
+}
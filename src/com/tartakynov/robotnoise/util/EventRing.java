@@ -0,0 +1,58 @@
+package com.tartakynov.robotnoise.util;
+
+/**
+ * @author Artem Tartakynov
+ * Fixed ring of the latest events, every event is a timestamp and an int value numbered by a growing sequence.
+ * A reader which remembers the last sequence it has seen gets only newer events, so events are collected
+ * in batches instead of being delivered one by one. Doesn't allocate after construction
+ */
+public final class EventRing {
+    private final long[] mTimes;
+    private final int[] mValues;
+    private long mSequence = 0; // number of events ever added
+
+    public EventRing(int capacity) {
+	mTimes = new long[capacity];
+	mValues = new int[capacity];
+    }
+
+    /********************* Public methods ******************************/
+
+    public synchronized void add(long time, int value) {
+	final int index = (int) (mSequence % mTimes.length);
+	mTimes[index] = time;
+	mValues[index] = value;
+	mSequence++;
+    }
+
+    /**
+     * Copies events added after the given sequence, oldest first, as many as fit into arrays.
+     * Returns number of events which were overwritten before they could be read
+     */
+    public synchronized int read(long sinceSequence, long[] times, int[] values) {
+	final long oldest = Math.max(0, mSequence - mTimes.length);
+	final long first = Math.max(oldest, Math.min(sinceSequence, mSequence));
+	final int count = (int) Math.min(times.length, mSequence - first);
+	for (int i = 0; i < count; i++) {
+	    final int index = (int) ((first + i) % mTimes.length);
+	    times[i] = mTimes[index];
+	    values[i] = mValues[index];
+	}
+	return (int) Math.max(0, oldest - sinceSequence);
+    }
+
+    /**
+     * Number of events available after the given sequence
+     */
+    public synchronized int count(long sinceSequence) {
+	final long oldest = Math.max(0, mSequence - mTimes.length);
+	return (int) (mSequence - Math.max(oldest, Math.min(sinceSequence, mSequence)));
+    }
+
+    /**
+     * Sequence of the newest event, events are numbered from 1
+     */
+    public synchronized long getSequence() {
+	return mSequence;
+    }
+}
@@ -0,0 +1,119 @@
+package com.tartakynov.robotnoise.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Artem Tartakynov
+ * Lock-free fixed-size histogram of latencies. Values are kept in microseconds in log-linear buckets
+ * (32 buckets per power of two, so the relative error is about 3%), recording is a couple of atomic increments
+ * and never allocates. Can be recorded and read from any thread
+ */
+public final class LatencyHistogram {
+
+    /**
+     * @author Artem Tartakynov
+     * Immutable view of the histogram, all values are in nanoseconds
+     */
+    public static final class Snapshot {
+	public final long count;
+	public final long p50;
+	public final long p99;
+	public final long max;
+
+	Snapshot(long count, long p50, long p99, long max) {
+	    this.count = count;
+	    this.p50 = p50;
+	    this.p99 = p99;
+	    this.max = max;
+	}
+
+	@Override
+	public String toString() {
+	    return String.format("n=%d p50=%.1fms p99=%.1fms max=%.1fms", count, p50 / 1e6, p99 / 1e6, max / 1e6);
+	}
+    }
+
+    private static final int SUB_BUCKET_BITS 	= 5;
+    private static final int SUB_BUCKETS 	= 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT 		= 31 - SUB_BUCKET_BITS;
+    private static final int BUCKETS 		= (MAX_SHIFT + 2) * SUB_BUCKETS;
+    private static final long MAX_MICROS 	= (1L << 32) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Records latency in nanoseconds, negative values are ignored
+     */
+    public void record(long nanos) {
+	if (nanos < 0) {
+	    return;
+	}
+	mCounts.incrementAndGet(bucket(Math.min(nanos / 1000, MAX_MICROS)));
+	mCount.incrementAndGet();
+	long max = mMax.get();
+	while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+	    max = mMax.get();
+	}
+    }
+
+    /**
+     * Returns latency in nanoseconds below which given fraction (0..1) of values falls
+     */
+    public long percentile(double fraction) {
+	final long count = mCount.get();
+	if (count == 0) {
+	    return 0;
+	}
+	final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += mCounts.get(i);
+	    if (seen >= rank) {
+		return Math.min(upperBound(i) * 1000, mMax.get());
+	    }
+	}
+	return mMax.get();
+    }
+
+    public Snapshot snapshot() {
+	return new Snapshot(mCount.get(), percentile(0.5), percentile(0.99), mMax.get());
+    }
+
+    /**
+     * Clears all values, values recorded concurrently may be lost
+     */
+    public void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    mCounts.set(i, 0);
+	}
+	mCount.set(0);
+	mMax.set(0);
+    }
+
+    /********************* Private methods *****************************/
+
+    private static int bucket(long micros) {
+	if (micros < 2 * SUB_BUCKETS) {
+	    return (int) micros;
+	}
+	final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+	return (shift + 1) * SUB_BUCKETS + (int) (micros >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The biggest value in microseconds which falls into the bucket
+     */
+    private static long upperBound(int bucket) {
+	if (bucket < 2 * SUB_BUCKETS) {
+	    return bucket;
+	}
+	final int shift = bucket / SUB_BUCKETS - 1;
+	final long lower = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tartakynov.robotnoise.util;
+
+/**
+ * @author Artem Tartakynov
+ * Latencies of the path from a sensor sample to the sound, all times are in System.nanoTime() base.
+ * The path ends when the sound is handed to the playback engine, the engine's own startup isn't visible from here.
+ * Set ENABLED to false to compile the probes out
+ */
+public final class LatencyTracker {
+    public static final boolean ENABLED 	= true;
+    public static final int STAGE_DELIVERY 	= 0; // sensor timestamp -> onSensorChanged
+    public static final int STAGE_DETECTION 	= 1; // sensor timestamp -> leg movement listener
+    public static final int STAGE_DISPATCH 	= 2; // play() call -> sound handed to the engine
+    public static final int STAGE_TOTAL_DISPATCH = 3; // sensor timestamp -> sound of the detected movement handed to the engine
+    public static final int STAGES 		= 4;
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGES];
+
+    public LatencyTracker() {
+	for (int i = 0; i < STAGES; i++) {
+	    mStages[i] = new LatencyHistogram();
+	}
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Records latency of the stage
+     */
+    public void record(int stage, long nanos) {
+	mStages[stage].record(nanos);
+    }
+
+    /**
+     * Records time passed since given System.nanoTime() value
+     */
+    public void recordSince(int stage, long startNanos) {
+	mStages[stage].record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram.Snapshot snapshot(int stage) {
+	return mStages[stage].snapshot();
+    }
+
+    public void reset() {
+	for (LatencyHistogram histogram : mStages) {
+	    histogram.reset();
+	}
+    }
+}
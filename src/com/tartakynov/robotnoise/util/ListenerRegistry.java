@@ -0,0 +1,95 @@
+package com.tartakynov.robotnoise.util;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Artem Tartakynov
+ * Copy-on-write set of listeners. Adding and removing replace the array atomically, dispatching iterates
+ * over the current snapshot, so it never allocates and never sees a half-updated list.
+ * Listeners may be added and removed from any thread, including from the callbacks
+ */
+public final class ListenerRegistry<T> {
+    private final AtomicReference<T[]> mListeners;
+
+    /**
+     * @param type class of the listener interface, used to create typed snapshots
+     */
+    @SuppressWarnings("unchecked")
+    public ListenerRegistry(Class<T> type) {
+	mListeners = new AtomicReference<T[]>((T[]) Array.newInstance(type, 0));
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Adds listener if it isn't registered yet
+     */
+    public void add(T listener) {
+	while (true) {
+	    final T[] current = mListeners.get();
+	    if (indexOf(current, listener) >= 0) {
+		return;
+	    }
+	    final T[] updated = copyOf(current, current.length + 1);
+	    updated[current.length] = listener;
+	    if (mListeners.compareAndSet(current, updated)) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Removes listener if it's registered
+     */
+    public void remove(T listener) {
+	while (true) {
+	    final T[] current = mListeners.get();
+	    final int index = indexOf(current, listener);
+	    if (index < 0) {
+		return;
+	    }
+	    final T[] updated = copyOf(current, current.length - 1);
+	    System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+	    if (mListeners.compareAndSet(current, updated)) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Removes all listeners
+     */
+    public void clear() {
+	mListeners.set(copyOf(mListeners.get(), 0));
+    }
+
+    /**
+     * Returns listeners registered at the moment of call, the array must not be modified
+     */
+    public T[] snapshot() {
+	return mListeners.get();
+    }
+
+    public boolean isEmpty() {
+	return mListeners.get().length == 0;
+    }
+
+    /********************* Private methods *****************************/
+
+    private static <T> int indexOf(T[] listeners, T listener) {
+	for (int i = 0; i < listeners.length; i++) {
+	    if (listeners[i] == listener) {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] copyOf(T[] array, int length) {
+	final T[] copy = (T[]) Array.newInstance(array.getClass().getComponentType(), length);
+	System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+	return copy;
+    }
+}
@@ -0,0 +1,51 @@
+package com.tartakynov.robotnoise.util;
+
+import android.util.Log;
+
+/**
+ * @author Artem Tartakynov
+ * Log wrapper for hot paths. Levels are checked once on creation, so a disabled call costs a field read
+ * and messages are only built when they are going to be written. Debug level is enabled by
+ * adb shell setprop log.tag.<TAG> DEBUG
+ */
+public final class Logger {
+    private final String mTag;
+    private final boolean mDebug;
+    private final boolean mInfo;
+
+    public Logger(String tag) {
+	mTag = tag;
+	mDebug = Log.isLoggable(tag, Log.DEBUG);
+	mInfo = Log.isLoggable(tag, Log.INFO);
+    }
+
+    /********************* Public methods ******************************/
+
+    public boolean isDebugEnabled() {
+	return mDebug;
+    }
+
+    public void d(String message) {
+	if (mDebug) {
+	    Log.d(mTag, message);
+	}
+    }
+
+    public void d(String message, int value) {
+	if (mDebug) {
+	    Log.d(mTag, message + value);
+	}
+    }
+
+    public void i(String message) {
+	if (mInfo) {
+	    Log.i(mTag, message);
+	}
+    }
+
+    public void i(String message, int value) {
+	if (mInfo) {
+	    Log.i(mTag, message + value);
+	}
+    }
+}
@@ -0,0 +1,65 @@
+package com.tartakynov.robotnoise.util;
+
+/**
+ * @author Artem Tartakynov
+ * Converts sensor timestamps to System.nanoTime() base. Most devices since 4.2 stamp the samples with
+ * elapsedRealtimeNanos() which keeps counting in deep sleep, older ones use the same clock as System.nanoTime().
+ * The clock is told by the first sample. The difference between the two clocks grows with every suspend,
+ * so it's read again on every conversion rather than kept. Doesn't depend on Android, the clocks are read through IHost
+ */
+public final class SensorClock {
+
+    /**
+     * @author Artem Tartakynov
+     * Reads the clocks, usually SystemClock.elapsedRealtimeNanos() and System.nanoTime()
+     */
+    public interface IHost {
+	/**
+	 * Returns the clock which keeps counting in deep sleep, or Long.MIN_VALUE if the device doesn't have it
+	 */
+	long elapsedRealtimeNanos();
+
+	long nanoTime();
+    }
+
+    private final IHost mHost;
+    private boolean mIsChecked = false;
+    private boolean mIsRealtime = false;
+
+    public SensorClock(IHost host) {
+	mHost = host;
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Tells the clock by the sample unless it's known already, call it with every sample before converting
+     */
+    public void check(long sensorTimestamp) {
+	if (mIsChecked) {
+	    return;
+	}
+	mIsChecked = true;
+	final long realtime = mHost.elapsedRealtimeNanos();
+	final long nanoTime = mHost.nanoTime();
+	mIsRealtime = realtime != Long.MIN_VALUE && Math.abs(sensorTimestamp - realtime) < Math.abs(sensorTimestamp - nanoTime);
+    }
+
+    /**
+     * Converts sensor timestamp to System.nanoTime() base
+     */
+    public long toSystemNanos(long sensorTimestamp) {
+	if (!mIsRealtime) {
+	    return sensorTimestamp;
+	}
+	final long nanoTime = mHost.nanoTime();
+	return sensorTimestamp - (mHost.elapsedRealtimeNanos() - nanoTime);
+    }
+
+    /**
+     * True if the sensor timestamps keep counting in deep sleep
+     */
+    public boolean isRealtime() {
+	return mIsRealtime;
+    }
+}
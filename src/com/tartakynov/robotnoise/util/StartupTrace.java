@@ -0,0 +1,66 @@
+package com.tartakynov.robotnoise.util;
+
+/**
+ * @author Artem Tartakynov
+ * Times named phases of a startup relative to the moment the trace is created. Only the first mark of a phase counts,
+ * so it may be marked from every place which can finish it. Phases may be marked from any thread
+ */
+public final class StartupTrace {
+    public static final long NOT_MARKED = -1;
+
+    private static final int MAX_PHASES = 16;
+
+    private final String mName;
+    private final long mOriginNanos;
+    private final String[] mPhases = new String[MAX_PHASES];
+    private final long[] mMillis = new long[MAX_PHASES];
+    private int mCount = 0;
+
+    public StartupTrace(String name) {
+	mName = name;
+	mOriginNanos = System.nanoTime();
+    }
+
+    /********************* Public methods ******************************/
+
+    /**
+     * Records the end of phase, returns milliseconds since the origin. Repeated marks return the first time
+     */
+    public synchronized long mark(String phase) {
+	final long millis = get(phase);
+	if (millis != NOT_MARKED) {
+	    return millis;
+	}
+	final long elapsed = (System.nanoTime() - mOriginNanos) / 1000000;
+	if (mCount < MAX_PHASES) {
+	    mPhases[mCount] = phase;
+	    mMillis[mCount] = elapsed;
+	    mCount++;
+	}
+	return elapsed;
+    }
+
+    /**
+     * Milliseconds between the origin and the end of phase, NOT_MARKED if the phase hasn't ended yet
+     */
+    public synchronized long get(String phase) {
+	for (int i = 0; i < mCount; i++) {
+	    if (mPhases[i].equals(phase)) {
+		return mMillis[i];
+	    }
+	}
+	return NOT_MARKED;
+    }
+
+    /**
+     * All phases in the order they ended, e.g. "MainActivity startup: content 85 ms, first frame 240 ms"
+     */
+    @Override
+    public synchronized String toString() {
+	final StringBuilder builder = new StringBuilder(mName).append(" startup:");
+	for (int i = 0; i < mCount; i++) {
+	    builder.append(i == 0 ? " " : ", ").append(mPhases[i]).append(' ').append(mMillis[i]).append(" ms");
+	}
+	return builder.toString();
+    }
+}